@@ -0,0 +1,79 @@
+package animals.benchmarks;
+
+import animals.LanguageRules;
+import animals.Node;
+import animals.Tree;
+import animals.TreeAnalytics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TreeAnalytics} on pools of 1 to 16 threads, next to the single-threaded {@link Tree} walks
+ * it replaces. The speedup per core count is the 1-thread score divided by the n-thread score.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms8g", "-Xmx8g", "-Duser.language=en"})
+public class AnalyticsBenchmark {
+    @Param({"balanced", "degenerate"})
+    private String shape;
+
+    @Param({"1000000", "10000000"})
+    private int size;
+
+    @Param({"1", "2", "4", "8", "16"})
+    private int threads;
+
+    private LanguageRules rules;
+    private Tree tree;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void buildTree() {
+        rules = LanguageRules.forLocale(Locale.ENGLISH);
+        Node root = SyntheticTrees.build(shape, size, rules);
+        tree = new Tree(rules);
+        tree.setRoot(root);
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdownPool() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public TreeAnalytics analyze() {
+        return TreeAnalytics.of(tree.getRoot(), rules, pool);
+    }
+
+    /**
+     * The separate walks of Tree, for comparison; the result doesn't depend on the thread count.
+     */
+    @Benchmark
+    public void sequentialWalks(Blackhole blackhole) {
+        blackhole.consume(tree.getNumberOfNodes());
+        blackhole.consume(tree.getDepths());
+        blackhole.consume(tree.getStatements());
+        blackhole.consume(tree.getAllLeaves());
+    }
+}
@@ -0,0 +1,80 @@
+package animals.benchmarks;
+
+import animals.FactStore;
+import animals.Node;
+import animals.TreeTraversal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A tree in struct-of-arrays form, the layout {@link FootprintReport} compares {@link Node} with.
+ * <p>
+ * Nodes are int ids into the left/right/hits arrays, -1 marks a missing child, and each fact is the id
+ * of its prefix and the UTF-8 bytes of the rest in one shared array, split like {@link FactStore} does.
+ * The arrays are sized to the tree, so nothing is counted that the layout wouldn't need.
+ */
+final class ArrayTree {
+    private final int[] left;
+    private final int[] right;
+    private final long[] hits;
+    private final int[] prefixOf;
+    private final int[] offsets;
+    private final String[] prefixes;
+    private final byte[] payloads;
+
+    private ArrayTree(int size, String[] prefixes, byte[] payloads) {
+        this.left = new int[size];
+        this.right = new int[size];
+        this.hits = new long[size];
+        this.prefixOf = new int[size];
+        this.offsets = new int[size + 1];
+        this.prefixes = prefixes;
+        this.payloads = payloads;
+    }
+
+    static ArrayTree of(Node root, int size) {
+        Map<String, Integer> prefixIds = new HashMap<>();
+        int[] prefixOf = new int[size];
+        byte[][] payloadOf = new byte[size][];
+        Map<Node, Integer> ids = new IdentityHashMap<>();
+        int payloadSize = 0;
+        for (Node node : TreeTraversal.preOrder(root)) {
+            int id = ids.size();
+            ids.put(node, id);
+            String fact = node.getFact();
+            int prefixLength = FactStore.prefixLength(fact);
+            prefixOf[id] = prefixIds.computeIfAbsent(fact.substring(0, prefixLength), prefix -> prefixIds.size());
+            payloadOf[id] = FactStore.encode(fact.substring(prefixLength));
+            payloadSize += payloadOf[id].length;
+        }
+        String[] prefixes = new String[prefixIds.size()];
+        prefixIds.forEach((prefix, id) -> prefixes[id] = prefix);
+
+        ArrayTree tree = new ArrayTree(size, prefixes, new byte[payloadSize]);
+        System.arraycopy(prefixOf, 0, tree.prefixOf, 0, size);
+        for (int id = 0; id < size; id++) {
+            System.arraycopy(payloadOf[id], 0, tree.payloads, tree.offsets[id], payloadOf[id].length);
+            tree.offsets[id + 1] = tree.offsets[id] + payloadOf[id].length;
+        }
+        for (Map.Entry<Node, Integer> entry : ids.entrySet()) {
+            Node node = entry.getKey();
+            int id = entry.getValue();
+            tree.left[id] = node.getLeft() == null ? -1 : ids.get(node.getLeft());
+            tree.right[id] = node.getRight() == null ? -1 : ids.get(node.getRight());
+            tree.hits[id] = node.getHits();
+        }
+        return tree;
+    }
+
+    int size() {
+        return left.length;
+    }
+
+    String getFact(int node) {
+        return prefixes[prefixOf[node]]
+                + new String(payloads, offsets[node], offsets[node + 1] - offsets[node], StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,76 @@
+package animals.benchmarks;
+
+import animals.Database;
+import animals.LanguageRules;
+import animals.Node;
+import animals.TreeTraversal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load and save time of every {@link Database} type.
+ * <p>
+ * Jackson reads and writes one level of the tree per stack frame, so the degenerate trees are kept
+ * to depths that fit in the benchmark thread's stack. The "idx" type maps the file and reads nodes
+ * on demand, which is why loading is measured both alone and followed by a walk over the whole tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms8g", "-Xmx8g", "-Xss512m", "-Duser.language=en"})
+public class DatabaseBenchmark {
+    @Param({"json", "xml", "yaml", "bin", "idx"})
+    private String type;
+
+    @Param({"balanced:1000", "balanced:100000", "balanced:1000000", "balanced:10000000",
+            "degenerate:1000", "degenerate:10000"})
+    private String tree;
+
+    private Database database;
+    private Node root;
+
+    @Setup(Level.Trial)
+    public void writeDatabase() {
+        String[] shapeAndSize = tree.split(":");
+        root = SyntheticTrees.build(shapeAndSize[0], Integer.parseInt(shapeAndSize[1]),
+                LanguageRules.forLocale(Locale.ENGLISH));
+        database = new Database(type);
+        if (!database.saveToFile(root)) {
+            throw new IllegalStateException("Could not write " + database.getFilename());
+        }
+    }
+
+    @Benchmark
+    public boolean save() {
+        return database.saveToFile(root);
+    }
+
+    @Benchmark
+    public Node load() {
+        return database.readFromFile();
+    }
+
+    @Benchmark
+    public int loadAndWalk() {
+        int nodes = 0;
+        for (Node node : TreeTraversal.preOrder(database.readFromFile())) {
+            nodes += node.getFact().length() > 0 ? 1 : 0;
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,60 @@
+package animals.benchmarks;
+
+import animals.LanguageRules;
+import animals.Node;
+
+import java.lang.ref.Reference;
+import java.util.Locale;
+
+/**
+ * Prints the heap a tree of {@link Node}s holds next to the same tree as an {@link ArrayTree},
+ * for balanced and degenerate trees of the given numbers of animals (default 100000 and 1000000).
+ * The heap is measured after a full collection, before and after each tree is built.
+ * <p>
+ * Run with: gradle :Guess_the_Animal-benchmarks:footprint [-PfootprintArgs="1000000 10000000"]
+ */
+public final class FootprintReport {
+    private static final LanguageRules RULES = LanguageRules.forLocale(Locale.ENGLISH);
+
+    private FootprintReport() {
+    }
+
+    public static void main(String[] args) {
+        String[] sizes = args.length == 0 ? new String[]{"100000", "1000000"} : args;
+        System.out.printf("%-10s %10s %10s %12s %12s %12s %12s%n",
+                "shape", "animals", "nodes", "Node MB", "Node B/node", "arrays MB", "arrays B/node");
+        for (String shape : new String[]{"balanced", "degenerate"}) {
+            for (String size : sizes) {
+                report(shape, Integer.parseInt(size));
+            }
+        }
+    }
+
+    private static void report(String shape, int animals) {
+        int nodes = 2 * animals - 1;
+        long empty = usedHeap();
+        Node root = SyntheticTrees.build(shape, animals, RULES);
+        long nodeBytes = usedHeap() - empty;
+        ArrayTree arrays = ArrayTree.of(root, nodes);
+        root = null;
+        long arrayBytes = usedHeap() - empty;
+        Reference.reachabilityFence(arrays);
+        System.out.printf("%-10s %10d %10d %12.1f %12.1f %12.1f %12.1f%n", shape, animals, nodes,
+                nodeBytes / 1e6, (double) nodeBytes / nodes, arrayBytes / 1e6, (double) arrayBytes / nodes);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // a few rounds, until a collection frees nothing more
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
+}
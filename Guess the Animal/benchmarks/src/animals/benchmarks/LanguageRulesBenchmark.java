@@ -0,0 +1,128 @@
+package animals.benchmarks;
+
+import animals.LanguageRules;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The question, negative, animalFact and definite rules of {@link LanguageRules} against the way the game
+ * used to apply them: {@code Pattern.compile(patternRes.getString(...))} on every call, trying the numbered
+ * rules in order until one finds a match. Each operation rewrites a fixed set of statements or animals.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Duser.language=en"})
+public class LanguageRulesBenchmark {
+    private static final String[] STATEMENTS_EN = {
+            "it can climb trees", "it has a long tail", "it is a mammal", "it is living in the forest"};
+    private static final String[] STATEMENTS_EO = {
+            "ĝi povas grimpi arbojn", "ĝi havas longan voston", "ĝi estas mamulo", "ĝi loĝas en la arbaro"};
+    private static final String[] ANIMALS_EN = {"a cat", "an elephant", "a sea lion", "an owl"};
+    private static final String[] ANIMALS_EO = {"kato", "elefanto", "marleono", "strigo"};
+
+    @Param({"en", "eo"})
+    private String language;
+
+    private ResourceBundle patternRes;
+    private LanguageRules rules;
+    private String[] statements;
+    private String[] animals;
+
+    @Setup(Level.Trial)
+    public void loadRules() {
+        patternRes = ResourceBundle.getBundle("patterns", new Locale(language));
+        rules = LanguageRules.forLocale(new Locale(language));
+        statements = language.equals("eo") ? STATEMENTS_EO : STATEMENTS_EN;
+        animals = language.equals("eo") ? ANIMALS_EO : ANIMALS_EN;
+    }
+
+    @Benchmark
+    public void questionCompiledPerCall(Blackhole blackhole) {
+        for (String statement : statements) {
+            blackhole.consume(compileAndApply("question", statement));
+        }
+    }
+
+    @Benchmark
+    public void questionLanguageRules(Blackhole blackhole) {
+        for (String statement : statements) {
+            blackhole.consume(rules.askQuestion(statement));
+        }
+    }
+
+    @Benchmark
+    public void negativeCompiledPerCall(Blackhole blackhole) {
+        for (String statement : statements) {
+            blackhole.consume(compileAndApply("negative", statement));
+        }
+    }
+
+    @Benchmark
+    public void negativeLanguageRules(Blackhole blackhole) {
+        for (String statement : statements) {
+            blackhole.consume(rules.makeNegative(statement));
+        }
+    }
+
+    @Benchmark
+    public void animalFactCompiledPerCall(Blackhole blackhole) {
+        for (String statement : statements) {
+            blackhole.consume(compileAndApply("animalFact", statement));
+        }
+    }
+
+    @Benchmark
+    public void animalFactLanguageRules(Blackhole blackhole) {
+        for (String statement : statements) {
+            blackhole.consume(rules.toAnimalFact(statement));
+        }
+    }
+
+    @Benchmark
+    public void definiteCompiledPerCall(Blackhole blackhole) {
+        for (String animal : animals) {
+            blackhole.consume(compileAndApply("definite", animal));
+        }
+    }
+
+    @Benchmark
+    public void definiteLanguageRules(Blackhole blackhole) {
+        for (String animal : animals) {
+            blackhole.consume(rules.replaceArticleWithDeterminer(animal));
+        }
+    }
+
+    /**
+     * Applies the first of the numbered rules that matches, compiling each pattern as it is tried.
+     */
+    private String compileAndApply(String rule, String input) {
+        for (int i = 1; patternRes.containsKey(rule + "." + i + ".pattern"); i++) {
+            Pattern pattern = Pattern.compile(patternRes.getString(rule + "." + i + ".pattern"));
+            Matcher matcher = pattern.matcher(input);
+            if (matcher.find()) {
+                return matcher.replaceAll(patternRes.getString(rule + "." + i + ".replace"));
+            }
+        }
+        return null;
+    }
+}
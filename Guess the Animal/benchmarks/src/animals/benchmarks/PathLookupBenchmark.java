@@ -0,0 +1,85 @@
+package animals.benchmarks;
+
+import animals.LanguageRules;
+import animals.Node;
+import animals.Tree;
+import animals.TreeTraversal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up the leaves of recorded games by their answers, the way the journal replay and the batch
+ * import do: walking from the root for every lookup, against {@link Tree#findByPath(String)}, which
+ * remembers the leaves it found. Each operation looks up {@link #PATHS} random leaves; the answers are
+ * copied into a new String first, as a record read from a file would be, so its hash isn't cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms8g", "-Xmx8g", "-Duser.language=en"})
+public class PathLookupBenchmark {
+    private static final int PATHS = 256;
+
+    @Param({"balanced", "degenerate"})
+    private String shape;
+
+    @Param({"1000", "100000", "1000000"})
+    private int size;
+
+    private Tree tree;
+    private char[][] paths;
+
+    @Setup(Level.Trial)
+    public void buildTree() {
+        LanguageRules rules = LanguageRules.forLocale(Locale.ENGLISH);
+        tree = new Tree(rules);
+        tree.setRoot(SyntheticTrees.build(shape, size, rules));
+        List<Node> leaves = new ArrayList<>();
+        for (Node leaf : TreeTraversal.leaves(tree.getRoot())) {
+            leaves.add(leaf);
+        }
+        Random random = new Random(42);
+        paths = new char[PATHS][];
+        for (int i = 0; i < PATHS; i++) {
+            paths[i] = Tree.getPath(leaves.get(random.nextInt(leaves.size()))).toCharArray();
+        }
+    }
+
+    @Benchmark
+    public void walkFromRoot(Blackhole blackhole) {
+        for (char[] path : paths) {
+            String answers = new String(path);
+            Node node = tree.getRoot();
+            for (int i = 0; i < answers.length() && node != null; i++) {
+                node = answers.charAt(i) == 'y' ? node.getRight() : node.getLeft();
+            }
+            blackhole.consume(node);
+        }
+    }
+
+    @Benchmark
+    public void findByPath(Blackhole blackhole) {
+        for (char[] path : paths) {
+            blackhole.consume(tree.findByPath(new String(path)));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package animals.benchmarks;
+
+import animals.Database;
+import animals.KnowledgeBase;
+import animals.LanguageRules;
+import animals.UserInterface;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link UserInterface} screens that render the whole tree, written to a stream that drops the bytes
+ * so the text is still formatted and encoded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms8g", "-Xmx8g", "-Duser.language=en"})
+public class RenderingBenchmark {
+    @Param({"balanced", "degenerate"})
+    private String shape;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    private int size;
+
+    private KnowledgeBase knowledgeBase;
+    private PrintStream out;
+    private UserInterface userInterface;
+
+    @Setup(Level.Trial)
+    public void buildTree() {
+        LanguageRules rules = LanguageRules.forLocale(Locale.ENGLISH);
+        knowledgeBase = new KnowledgeBase(new Database("json"), rules);
+        knowledgeBase.getTree().setRoot(SyntheticTrees.build(shape, size, rules));
+        out = new PrintStream(OutputStream.nullOutputStream(), false, StandardCharsets.UTF_8);
+        userInterface = new UserInterface(new Scanner(""), out, knowledgeBase);
+    }
+
+    @Benchmark
+    public void printTree() {
+        userInterface.printTree();
+    }
+
+    /**
+     * Menu entry 2 in a session that exits right after it.
+     */
+    @Benchmark
+    public void listAnimals() {
+        new UserInterface(new Scanner("2\n0\n"), out, knowledgeBase).startSession();
+    }
+}
@@ -0,0 +1,69 @@
+package animals.benchmarks;
+
+import animals.LanguageRules;
+import animals.Node;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Generated trees for the benchmarks.
+ * <p>
+ * A balanced tree splits its animals breadth-first, so every animal is at depth log2(n) or one above.
+ * A degenerate tree is a chain with one new animal on the "no" side of every statement.
+ * In both shapes {@link #DEEPEST_ANIMAL} is one of the deepest animals.
+ */
+final class SyntheticTrees {
+    static final String DEEPEST_ANIMAL = animal(0);
+
+    private SyntheticTrees() {
+    }
+
+    static Node build(String shape, int animals, LanguageRules rules) {
+        switch (shape) {
+            case "balanced":
+                return balanced(animals, rules);
+            case "degenerate":
+                return degenerate(animals, rules);
+            default:
+                throw new IllegalArgumentException("Unknown tree shape " + shape);
+        }
+    }
+
+    static Node balanced(int animals, LanguageRules rules) {
+        Node root = new Node(rules.toLeafFact(animal(0)), null);
+        Deque<Node> leaves = new ArrayDeque<>();
+        leaves.add(root);
+        for (int i = 1; i < animals; i++) {
+            Node leaf = leaves.poll();
+            split(leaf, i, rules);
+            leaves.add(leaf.getRight());
+            leaves.add(leaf.getLeft());
+        }
+        return root;
+    }
+
+    static Node degenerate(int animals, LanguageRules rules) {
+        Node root = new Node(rules.toLeafFact(animal(0)), null);
+        Node leaf = root;
+        for (int i = 1; i < animals; i++) {
+            split(leaf, i, rules);
+            leaf = leaf.getRight();
+        }
+        return root;
+    }
+
+    /**
+     * Turns the leaf into statement i with the old animal as "yes" and animal i as "no".
+     * Only used while the tree is being built, before anybody else can see it.
+     */
+    private static void split(Node leaf, int i, LanguageRules rules) {
+        leaf.setRight(new Node(leaf.getFact(), leaf));
+        leaf.setLeft(new Node(rules.toLeafFact(animal(i)), leaf));
+        leaf.setFact("it has feature " + i);
+    }
+
+    static String animal(int i) {
+        return "a beast" + i;
+    }
+}
@@ -0,0 +1,108 @@
+package animals.benchmarks;
+
+import animals.LanguageRules;
+import animals.Node;
+import animals.Tree;
+import animals.TreeStatistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every {@link Tree} query on balanced and degenerate trees of 1k to 10M animals.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms8g", "-Xmx8g", "-Duser.language=en"})
+public class TreeQueryBenchmark {
+    @Param({"balanced", "degenerate"})
+    private String shape;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    private int size;
+
+    private Tree tree;
+    private Node root;
+    private Node deepestLeaf;
+
+    @Setup(Level.Trial)
+    public void buildTree() {
+        LanguageRules rules = LanguageRules.forLocale(Locale.ENGLISH);
+        root = SyntheticTrees.build(shape, size, rules);
+        tree = new Tree(rules);
+        tree.setRoot(root);
+        deepestLeaf = tree.findAnimal(SyntheticTrees.DEEPEST_ANIMAL);
+    }
+
+    @Benchmark
+    public List<String> getAllLeaves() {
+        return tree.getAllLeaves();
+    }
+
+    @Benchmark
+    public List<String> getAllAnimalFactsOfDeepestAnimal() {
+        return tree.getAllAnimalFacts(SyntheticTrees.DEEPEST_ANIMAL);
+    }
+
+    @Benchmark
+    public List<String> firstPageOfAnimalNames() {
+        return tree.getAnimalNames("beast1", null, 20);
+    }
+
+    @Benchmark
+    public Node findAnimal() {
+        return tree.findAnimal(SyntheticTrees.DEEPEST_ANIMAL);
+    }
+
+    @Benchmark
+    public String getPathOfDeepestAnimal() {
+        return Tree.getPath(deepestLeaf);
+    }
+
+    @Benchmark
+    public List<Integer> getDepths() {
+        return tree.getDepths();
+    }
+
+    @Benchmark
+    public List<String> getStatements() {
+        return tree.getStatements();
+    }
+
+    @Benchmark
+    public int getNumberOfNodes() {
+        return tree.getNumberOfNodes();
+    }
+
+    @Benchmark
+    public TreeStatistics countStatistics() {
+        return TreeStatistics.of(root);
+    }
+
+    /**
+     * Learns an animal below the deepest leaf and goes back to the original version,
+     * so every invocation copies the same root-to-leaf path.
+     */
+    @Benchmark
+    public Node splitDeepestLeaf() {
+        Node statement = tree.splitLeaf(deepestLeaf, "it has a new feature", "a newcomer", true);
+        tree.setRoot(root);
+        return statement;
+    }
+}
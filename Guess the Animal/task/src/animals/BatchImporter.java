@@ -0,0 +1,169 @@
+package animals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Applies a file of records to a knowledge base without any prompts, one record per line:
+ * <pre>
+ * learn;a dolphin;it is a mammal;yes;a shark
+ * game;yyn;a cat
+ * game;yyn;a lynx;it has tufted ears;yes
+ * </pre>
+ * A "learn" record splits the leaf of an animal already in the tree (the last field) with the new animal,
+ * the statement and whether it is true for the new animal. A "game" record is a recorded game: the answers
+ * ('y' or 'n') lead to a leaf, and when that leaf isn't the animal the player thought of, the statement and
+ * the answer teach it like the end of a lost game. Animals are written as the game stores them, with
+ * their article. Empty lines and lines starting with '#' are skipped.
+ * <p>
+ * The records are applied in one batch, so the tree is written once at the end instead of journaling
+ * every learned animal.
+ */
+public class BatchImporter {
+    private final KnowledgeBase knowledgeBase;
+    private final Tree tree;
+    private final LanguageRules rules;
+    private final PrintStream errors;
+    private int records;
+    private int learned;
+    private int games;
+    private int skipped;
+
+    public BatchImporter(KnowledgeBase knowledgeBase, PrintStream errors) {
+        this.knowledgeBase = knowledgeBase;
+        this.tree = knowledgeBase.getTree();
+        this.rules = knowledgeBase.getRules();
+        this.errors = errors;
+    }
+
+    /**
+     * Applies every record of the file and saves the tree. Returns false when the tree couldn't be saved.
+     */
+    public boolean importFile(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            IOException[] failure = new IOException[1];
+            boolean saved = knowledgeBase.runBatch(() -> {
+                try {
+                    String line;
+                    for (int number = 1; (line = reader.readLine()) != null; number++) {
+                        apply(line.trim(), number);
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            return saved;
+        }
+    }
+
+    private void apply(String line, int number) {
+        if (line.isEmpty() || line.startsWith("#")) {
+            return;
+        }
+        records++;
+        String[] fields = line.toLowerCase(Locale.ROOT).split(";");
+        String error;
+        if (fields[0].equals("learn") && fields.length == 5) {
+            error = learn(fields[1], fields[2], fields[3], tree.findAnimal(fields[4]), false);
+        } else if (fields[0].equals("game") && (fields.length == 3 || fields.length == 5)) {
+            error = replayGame(fields);
+        } else {
+            error = "not a learn or game record";
+        }
+        if (error != null) {
+            skipped++;
+            errors.println("line " + number + ": " + error + ": " + line);
+        }
+    }
+
+    private String replayGame(String[] fields) {
+        String answers = fields[1];
+        Node node = onlyYesAndNo(answers) ? tree.findByPath(answers) : null;
+        if (node == null) {
+            // more answers than the game asked, it ended at the leaf they pass; only those have to be y or n
+            node = tree.getRoot();
+            for (int i = 0; i < answers.length() && !tree.isALeaf(node); i++) {
+                char answer = answers.charAt(i);
+                if (answer != 'y' && answer != 'n') {
+                    return "answers must be y or n";
+                }
+                node = answer == 'y' ? node.getRight() : node.getLeft();
+            }
+        }
+        if (!tree.isALeaf(node)) {
+            return "the answers end before an animal";
+        }
+        if (node.getFact().equals(rules.toLeafFact(fields[2]))) {
+            knowledgeBase.countGame(node, true);
+            games++;
+            return null;
+        }
+        if (fields.length == 3) {
+            return "the game ended at " + rules.getAnimalName(node.getFact()) + " without a statement";
+        }
+        String error = learn(fields[2], fields[3], fields[4], node, true);
+        if (error == null) {
+            games++;
+        }
+        return error;
+    }
+
+    private static boolean onlyYesAndNo(String answers) {
+        for (int i = 0; i < answers.length(); i++) {
+            if (answers.charAt(i) != 'y' && answers.charAt(i) != 'n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String learn(String animal, String statement, String answer, Node leaf, boolean isGame) {
+        if (leaf == null) {
+            return "no such animal in the tree";
+        }
+        String fact = rules.findStatement(statement);
+        if (fact == null) {
+            return "not a statement";
+        }
+        if (!answer.equals("yes") && !answer.equals("no")) {
+            return "the answer must be yes or no";
+        }
+        if (tree.findAnimal(animal) != null) {
+            return animal + " is already in the tree";
+        }
+        if (tree.getAnswers(leaf).containsKey(fact)) {
+            return "the statement is already asked on the way to " + rules.getAnimalName(leaf.getFact());
+        }
+        boolean isTrueForAnimal = answer.equals("yes");
+        Node statementNode = tree.splitLeaf(leaf, fact, animal, isTrueForAnimal);
+        if (isGame) {
+            knowledgeBase.countGame(isTrueForAnimal ? statementNode.getRight() : statementNode.getLeft(), false);
+        }
+        learned++;
+        return null;
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    public int getLearned() {
+        return learned;
+    }
+
+    public int getGames() {
+        return games;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+}
@@ -0,0 +1,319 @@
+package animals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact pre-order encoding of the tree.
+ * After a short header every node is written as one varint holding
+ * (length of the fact's payload << 3 | 4 when the payload is UTF-8 rather than Latin-1
+ * | 2 when the "no" subtree comes first | 1 when it is a statement), a varint with the id of the fact's
+ * prefix (see {@link FactStore#prefixLength(String)}), the payload bytes and a varint with the node's hits.
+ * Prefixes get their ids in the order they first appear: the id of a new prefix is followed by its
+ * UTF-8 length and bytes.
+ * A statement is followed by its subtree with more hits and then by the other one, so the most
+ * played paths are stored, and read back into memory, as unbroken runs.
+ */
+public final class BinaryTreeFormat {
+    private static final int MAGIC = 0x47544142; // "GTAB"
+    private static final int VERSION = 3;
+
+    private BinaryTreeFormat() {
+    }
+
+    public static void write(Node root, OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        Map<String, Integer> prefixes = new HashMap<>();
+        for (Node node : TreeTraversal.hotFirst(root)) {
+            writeFact(out, node.getFact(), (TreeTraversal.isNoFirst(node) ? 2 : 0)
+                    | (TreeTraversal.isALeaf(node) ? 0 : 1), prefixes);
+            writeVarLong(out, node.getHits());
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the header with the given flags, the prefix and the payload of a node.
+     */
+    private static void writeFact(DataOutputStream out, String fact, int flags, Map<String, Integer> prefixes)
+            throws IOException {
+        int prefixLength = FactStore.prefixLength(fact);
+        String payload = fact.substring(prefixLength);
+        boolean latin1 = FactStore.isLatin1(payload);
+        byte[] bytes = FactStore.encode(payload, latin1);
+        writeVarInt(out, bytes.length << 3 | (latin1 ? 0 : 4) | flags);
+        String prefix = fact.substring(0, prefixLength);
+        Integer prefixId = prefixes.get(prefix);
+        if (prefixId != null) {
+            writeVarInt(out, prefixId);
+        } else {
+            writeVarInt(out, prefixes.size());
+            byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, prefixBytes.length);
+            out.write(prefixBytes);
+            prefixes.put(prefix, prefixes.size());
+        }
+        out.write(bytes);
+    }
+
+    public static Node read(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        readVersion(in);
+        Deque<Node> statements = new ArrayDeque<>();
+        Deque<Boolean> noFirst = new ArrayDeque<>();
+        List<String> prefixes = new ArrayList<>();
+        Node root = null;
+        do {
+            int header = readVarInt(in);
+            String fact = readFact(in, header, prefixes);
+            Node node = new Node(fact, statements.peek());
+            node.setHits(readVarLong(in));
+            Node parent = statements.peek();
+            if (parent == null) {
+                root = node;
+            } else {
+                boolean isFirstChild = parent.getLeft() == null && parent.getRight() == null;
+                if (isFirstChild != noFirst.peek()) {
+                    parent.setRight(node);
+                } else {
+                    parent.setLeft(node);
+                }
+                if (!isFirstChild) {
+                    statements.pop();
+                    noFirst.pop();
+                }
+            }
+            if ((header & 1) == 1) {
+                statements.push(node);
+                noFirst.push((header & 2) == 2);
+            }
+        } while (!statements.isEmpty());
+        return root;
+    }
+
+    /**
+     * Streams the tree into the sink without building its nodes and returns the number of nodes.
+     */
+    public static long read(InputStream inputStream, NodeSink sink) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        readVersion(in);
+        // the open statements: how many of their children were read, whether "no" comes first, their hits
+        Deque<long[]> statements = new ArrayDeque<>();
+        List<String> prefixes = new ArrayList<>();
+        long nodes = 0;
+        do {
+            int header = readVarInt(in);
+            String fact = readFact(in, header, prefixes);
+            long hits = readVarLong(in);
+            long[] parent = statements.peek();
+            boolean yes = true;
+            if (parent != null) {
+                yes = (parent[0]++ == 0) != (parent[1] == 1);
+            }
+            sink.startNode(fact, yes);
+            nodes++;
+            if ((header & 1) == 1) {
+                statements.push(new long[]{0, (header & 2) == 2 ? 1 : 0, hits});
+            } else {
+                sink.endNode(hits);
+                while (!statements.isEmpty() && statements.peek()[0] == 2) {
+                    sink.endNode(statements.pop()[2]);
+                }
+            }
+        } while (!statements.isEmpty());
+        return nodes;
+    }
+
+    /**
+     * A sink that writes the file; the "yes" and "no" subtrees are kept in the order they come,
+     * the game stores the most played one first again on its next save.
+     */
+    public static NodeSink newWriter(Path file) throws IOException {
+        return new StreamWriter(file);
+    }
+
+    private static void readVersion(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an animal tree file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported animal tree file version " + version);
+        }
+    }
+
+    private static String readFact(DataInputStream in, int header, List<String> prefixes) throws IOException {
+        String prefix = readPrefix(in, prefixes);
+        byte[] bytes = new byte[header >>> 3];
+        in.readFully(bytes);
+        return prefix + FactStore.decode(bytes, 0, bytes.length, (header & 4) == 0);
+    }
+
+    private static String readPrefix(DataInputStream in, List<String> prefixes) throws IOException {
+        int id = readVarInt(in);
+        if (id < prefixes.size()) {
+            return prefixes.get(id);
+        }
+        if (id > prefixes.size()) {
+            throw new IOException("Malformed animal tree file");
+        }
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        String prefix = new String(bytes, StandardCharsets.UTF_8);
+        prefixes.add(prefix);
+        return prefix;
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated animal tree file");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed animal tree file");
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated animal tree file");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed animal tree file");
+    }
+
+    /**
+     * The flags and hits of a node are only known after its children, so the facts are spooled
+     * to one file and the flags and hits put in a {@link RecordFile} by pre-order index;
+     * when the root ends both are merged into the file.
+     */
+    private static final class StreamWriter implements NodeSink {
+        private static final int FLAGS = 0;
+        private static final int HITS = 1;
+        private static final int RECORD_SIZE = 9;
+
+        private final Path file;
+        private final Path spoolFile;
+        private final Path recordsFile;
+        private final DataOutputStream spool;
+        private final RecordFile records;
+        private final Map<String, Integer> prefixes = new HashMap<>();
+        // the open nodes: pre-order index, number of children so far, 2 when "no" came first
+        private final Deque<long[]> open = new ArrayDeque<>();
+        private long nodes;
+
+        private StreamWriter(Path file) throws IOException {
+            this.file = file;
+            this.spoolFile = file.resolveSibling(file.getFileName() + ".spool");
+            this.recordsFile = file.resolveSibling(file.getFileName() + ".flags");
+            this.spool = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spoolFile), 1 << 16));
+            this.records = new RecordFile(recordsFile, 0, RECORD_SIZE);
+        }
+
+        @Override
+        public void startNode(String fact, boolean yes) throws IOException {
+            long[] parent = open.peek();
+            if (parent != null && parent[1]++ == 0 && !yes) {
+                parent[2] = 2;
+            }
+            writeFact(spool, fact, 0, prefixes);
+            open.push(new long[]{nodes++, 0, 0});
+        }
+
+        @Override
+        public void endNode(long hits) throws IOException {
+            long[] node = open.pop();
+            records.putByte(node[0], FLAGS, (byte) (node[2] | (node[1] == 0 ? 0 : 1)));
+            records.putLong(node[0], HITS, hits);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            spool.close();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spoolFile), 1 << 16));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                int knownPrefixes = 0;
+                byte[] buffer = new byte[256];
+                for (long node = 0; node < nodes; node++) {
+                    int header = readVarInt(in) | records.getByte(node, FLAGS);
+                    writeVarInt(out, header);
+                    int prefixId = readVarInt(in);
+                    writeVarInt(out, prefixId);
+                    if (prefixId == knownPrefixes) {
+                        int length = readVarInt(in);
+                        writeVarInt(out, length);
+                        buffer = copy(in, out, length, buffer);
+                        knownPrefixes++;
+                    }
+                    buffer = copy(in, out, header >>> 3, buffer);
+                    writeVarLong(out, records.getLong(node, HITS));
+                }
+            }
+        }
+
+        private static byte[] copy(DataInputStream in, DataOutputStream out, int length, byte[] buffer)
+                throws IOException {
+            if (buffer.length < length) {
+                buffer = new byte[length];
+            }
+            in.readFully(buffer, 0, length);
+            out.write(buffer, 0, length);
+            return buffer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            spool.close();
+            records.close();
+            Files.deleteIfExists(spoolFile);
+            Files.deleteIfExists(recordsFile);
+        }
+    }
+}
@@ -1,52 +1,233 @@
 package animals;
 
+import com.ctc.wstx.api.WstxInputProperties;
+import com.ctc.wstx.stax.WstxInputFactory;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.xml.XmlFactory;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.fasterxml.jackson.dataformat.xml.ser.ToXmlGenerator;
 import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Locale;
 
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+
+/**
+ * The tree file in one of the formats json (default), xml, yaml, bin or idx.
+ * <p>
+ * Only the Jackson mapper of the selected format is created, when it is first needed. Next to a
+ * json, xml or yaml file a snapshot in the {@link BinaryTreeFormat} is kept, written with every save,
+ * and read instead of the file as long as it isn't older; most starts then don't load Jackson at all.
+ * <p>
+ * Saving replaces the file atomically and keeps the replaced versions as numbered generations
+ * (animals.json.1 is the newest), which are read when the file itself can't be. An idx file read as the
+ * current tree is instead appended to by the saves of that tree, see {@link MappedTreeStore}.
+ */
 public class Database {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final boolean SNAPSHOTS = !"false".equals(System.getProperty("animals.snapshot"));
+    private static final int GENERATIONS = Integer.getInteger("animals.save.generations", 3);
+    private static final Metrics METRICS = Metrics.getDefault();
+
     private String filename;
     private String type;
+    private final Locale locale;
     private ObjectMapper objectMapper;
     private String language;
+    // the file couldn't be read, so it isn't kept as a generation when it is replaced
+    private volatile boolean damaged;
+    // the idx file the current tree was read from or saved to, which the next save appends to
+    private MappedTreeStore store;
 
 
     public Database(String type) {
+        this(type, Locale.getDefault());
+    }
+
+    /**
+     * The database of the given language; every language has its own file, e.g. animals_eo.json.
+     */
+    public Database(String type, Locale locale) {
         this.type = type;
-        setObjectMapper();
+        this.locale = locale;
+        setFilename();
     }
 
-    private void setObjectMapper() {
+    private void setFilename() {
         StringBuilder stringBuilder = new StringBuilder("animals");
-        Locale locale = new Locale("eo");
-        if (Locale.getDefault().getLanguage().equals(locale.getLanguage())) {
-            stringBuilder.append("_").append(locale.getLanguage());
+        Locale esperanto = new Locale("eo");
+        if (locale.getLanguage().equals(esperanto.getLanguage())) {
+            stringBuilder.append("_").append(esperanto.getLanguage());
         }
         switch (type){
             case "xml":
-                objectMapper = new XmlMapper();
                 stringBuilder.append(".xml");
                 break;
             case "yaml":
-                objectMapper = new YAMLMapper();
                 stringBuilder.append(".yaml");
                 break;
+            case "bin":
+                stringBuilder.append(".bin");
+                break;
+            case "idx":
+                stringBuilder.append(".idx");
+                break;
             default:
-                objectMapper = new JsonMapper();
                 stringBuilder.append(".json");
         }
         filename=stringBuilder.toString();
     }
 
+    /**
+     * Each mapper sits in its own holder class, so the classes of the other formats aren't even loaded.
+     */
+    private ObjectMapper getObjectMapper() {
+        if (objectMapper == null) {
+            switch (type) {
+                case "xml":
+                    objectMapper = XmlHolder.MAPPER;
+                    break;
+                case "yaml":
+                    objectMapper = YamlHolder.MAPPER;
+                    break;
+                default:
+                    objectMapper = JsonHolder.MAPPER;
+            }
+        }
+        return objectMapper;
+    }
+
+    /**
+     * Streams the tree in the given file of this format into the sink without building its nodes,
+     * and returns the number of nodes.
+     */
+    public long readInto(Path file, NodeSink sink) throws IOException {
+        switch (type) {
+            case "bin":
+                try (InputStream in = new BufferedInputStream(new FileInputStream(file.toFile()), BUFFER_SIZE)) {
+                    return BinaryTreeFormat.read(in, sink);
+                }
+            case "idx":
+                return MappedTreeStore.open(file).read(sink);
+            default:
+                try (JsonParser parser = getObjectMapper().getFactory().createParser(file.toFile())) {
+                    return JacksonTreeFormat.read(parser, sink);
+                }
+        }
+    }
+
+    /**
+     * A sink that writes a file of this format, see {@link #readInto(Path, NodeSink)}.
+     */
+    public NodeSink newWriter(Path file) throws IOException {
+        switch (type) {
+            case "bin":
+                return BinaryTreeFormat.newWriter(file);
+            case "idx":
+                return MappedTreeStore.newWriter(file);
+            default:
+                return JacksonTreeFormat.newWriter(createGenerator(file));
+        }
+    }
+
+    private JsonGenerator createGenerator(Path file) throws IOException {
+        if (type.equals("xml")) {
+            return XmlHolder.createGenerator(file);
+        }
+        return getObjectMapper().getFactory().createGenerator(file.toFile(), JsonEncoding.UTF8);
+    }
+
+    private static final class JsonHolder {
+        private static final ObjectMapper MAPPER = new JsonMapper();
+    }
+
+    private static final class XmlHolder {
+        private static final ObjectMapper MAPPER = new XmlMapper(new XmlFactory(createInputFactory()));
+
+        // Woodstox stops at 1000 nested elements by default, every node nests two
+        private static XMLInputFactory createInputFactory() {
+            XMLInputFactory factory = new WstxInputFactory();
+            factory.setProperty(WstxInputProperties.P_MAX_ELEMENT_DEPTH, Integer.MAX_VALUE);
+            return factory;
+        }
+
+        // the mapper names the root element after the class
+        static JsonGenerator createGenerator(Path file) throws IOException {
+            ToXmlGenerator generator = (ToXmlGenerator) MAPPER.getFactory()
+                    .createGenerator(file.toFile(), JsonEncoding.UTF8);
+            generator.setNextName(new QName(Node.class.getSimpleName()));
+            return generator;
+        }
+    }
+
+    private static final class YamlHolder {
+        private static final ObjectMapper MAPPER = new YAMLMapper();
+    }
+
+    public Path getSnapshotFile() {
+        return Paths.get(filename + ".snapshot");
+    }
+
+    private Node readSnapshot() {
+        Path file = Paths.get(filename);
+        Path snapshot = getSnapshotFile();
+        try {
+            if (!SNAPSHOTS || !Files.exists(file) || !Files.exists(snapshot)
+                    || Files.getLastModifiedTime(snapshot).compareTo(Files.getLastModifiedTime(file)) < 0) {
+                return null;
+            }
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(snapshot), BUFFER_SIZE)) {
+                return BinaryTreeFormat.read(in);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void writeSnapshot(Node root) {
+        if (!SNAPSHOTS) {
+            return;
+        }
+        Path snapshot = getSnapshotFile();
+        Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE)) {
+                BinaryTreeFormat.write(root, out);
+            }
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public String getFilename() {
         return filename;
     }
 
+    public Locale getLocale() {
+        return locale;
+    }
+
     public String getType() {
         return type;
     }
@@ -56,19 +237,196 @@ public class Database {
     }
 
     public Node readFromFile(){
+        long start = System.nanoTime();
+        store = null;
         try {
-            return objectMapper.readValue(new File(filename) , Node.class);
+            Node root = read(Paths.get(filename), true);
+            record("load", start, Files.size(Paths.get(filename)));
+            return root;
         } catch (IOException e) {
+            METRICS.counter("animals_database_errors_total", "Failed loads and saves",
+                    "operation", "load", "format", type).increment();
             e.printStackTrace();
-            return null;
+            damaged = Files.exists(Paths.get(filename));
+            return readGeneration();
+        }
+    }
+
+    /**
+     * Falls back to the newest older generation that can be read when the file is missing or broken.
+     */
+    private Node readGeneration() {
+        for (int generation = 1; generation <= GENERATIONS; generation++) {
+            Path file = getGeneration(generation);
+            if (!Files.exists(file)) {
+                continue;
+            }
+            try {
+                Node root = read(file, false);
+                System.err.println("Loaded " + file + " instead of " + filename);
+                return root;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the given file; when it is the current one, json, xml and yaml come from the snapshot if possible
+     * and an idx file is kept to append to, and rewritten first when it needs it.
+     */
+    private Node read(Path file, boolean current) throws IOException {
+        switch (type) {
+            case "bin":
+                try (InputStream in = new BufferedInputStream(new FileInputStream(file.toFile()), BUFFER_SIZE)) {
+                    return BinaryTreeFormat.read(in);
+                }
+            case "idx":
+                MappedTreeStore opened = MappedTreeStore.open(file);
+                if (current && opened.needsCompaction()) {
+                    opened = compact(file, opened);
+                }
+                if (current) {
+                    store = opened;
+                }
+                return opened.getRoot();
+            default:
+                Node root = current ? readSnapshot() : null;
+                if (root == null) {
+                    try (JsonParser parser = getObjectMapper().getFactory().createParser(file.toFile())) {
+                        root = JacksonTreeFormat.read(parser);
+                    }
+                    if (current) {
+                        writeSnapshot(root);
+                    }
+                }
+                return root;
         }
     }
 
-    public void saveToFile(Node root){
+    /**
+     * Writes the idx file anew from its current version, without building the nodes, and reopens it.
+     */
+    private MappedTreeStore compact(Path file, MappedTreeStore opened) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (NodeSink writer = MappedTreeStore.newWriter(temp)) {
+            opened.read(writer);
+            writer.finish();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return MappedTreeStore.open(file);
+    }
+
+    /**
+     * Returns the statistics kept in the idx file the tree was read from or saved to, or null.
+     */
+    public TreeStatistics getStoredStatistics() {
+        return store == null ? null : store.getStatistics();
+    }
+
+    public boolean saveToFile(Node root){
+        return saveToFile(root, null);
+    }
+
+    /**
+     * Writes the tree to a temporary file, forces it to the disk and moves it over the file,
+     * so a crash leaves either the old or the new tree. The replaced file is kept as generation 1,
+     * generation 1 becomes 2 and so on up to animals.save.generations.
+     * <p>
+     * When the tree was read from or last saved to the idx file and its statistics are given,
+     * its changes are appended to the file instead.
+     */
+    public boolean saveToFile(Node root, TreeStatistics statistics){
+        long start = System.nanoTime();
+        if (store != null && statistics != null) {
+            try {
+                record("save", start, store.append(root, statistics));
+                return true;
+            } catch (IOException e) {
+                store = null;
+                METRICS.counter("animals_database_errors_total", "Failed loads and saves",
+                        "operation", "save", "format", type).increment();
+                e.printStackTrace();
+                return false;
+            }
+        }
+        store = null;
+        Path file = Paths.get(filename);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
         try {
-            objectMapper.writeValue(new File(filename) , root);
+            boolean text = false;
+            switch (type) {
+                case "bin":
+                    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp.toFile()), BUFFER_SIZE)) {
+                        BinaryTreeFormat.write(root, out);
+                    }
+                    break;
+                case "idx":
+                    MappedTreeStore.save(root, temp);
+                    break;
+                default:
+                    try (JsonGenerator generator = createGenerator(temp)) {
+                        JacksonTreeFormat.write(root, generator);
+                    }
+                    text = true;
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            if (!damaged) {
+                keepGeneration(file);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            damaged = false;
+            if (text) {
+                writeSnapshot(root);
+            }
+            if (type.equals("idx")) {
+                store = MappedTreeStore.open(file);
+            }
+            record("save", start, Files.size(file));
+            return true;
         } catch (IOException e) {
+            METRICS.counter("animals_database_errors_total", "Failed loads and saves",
+                    "operation", "save", "format", type).increment();
             e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Shifts the older generations and keeps the current file as generation 1,
+     * as a hard link where the file system allows it.
+     */
+    private void keepGeneration(Path file) throws IOException {
+        if (GENERATIONS <= 0 || !Files.exists(file)) {
+            return;
+        }
+        for (int generation = GENERATIONS - 1; generation >= 1; generation--) {
+            Path older = getGeneration(generation);
+            if (Files.exists(older)) {
+                Files.move(older, getGeneration(generation + 1), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        Path first = getGeneration(1);
+        Files.deleteIfExists(first);
+        try {
+            Files.createLink(first, file);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(file, first, StandardCopyOption.REPLACE_EXISTING);
         }
     }
+
+    public Path getGeneration(int generation) {
+        return Paths.get(filename + "." + generation);
+    }
+
+    private void record(String operation, long start, long bytes) {
+        METRICS.histogram("animals_database_" + operation + "_seconds", "Time to " + operation + " the tree",
+                "format", type).observeSince(start);
+        METRICS.counter("animals_database_" + operation + "_bytes_total", "Bytes read or written at each " + operation,
+                "format", type).add(bytes);
+    }
 }
@@ -0,0 +1,64 @@
+package animals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How facts are stored compactly: the prefix, the fact up to and including its second space, e.g. "it can "
+ * or "it is ", is shared by most facts of a tree and kept once, and the rest is kept as bytes rather than a String.
+ * Every {@link Node} keeps its fact as a prefix from {@link #internPrefix(String)} and the UTF-8 bytes of the rest
+ * until the fact is first read; the binary tree formats write the prefixes once and the rest one byte per char when every char fits in Latin-1.
+ */
+public final class FactStore {
+    private static final int MAX_PREFIX_LENGTH = 32;
+    private static final Map<String, String> SHARED_PREFIXES = new ConcurrentHashMap<>();
+
+    private FactStore() {
+    }
+
+    /**
+     * Returns the length of the prefix that is interned separately, 0 when the fact has none.
+     */
+    public static int prefixLength(String fact) {
+        int first = fact.indexOf(' ');
+        int second = first < 0 ? -1 : fact.indexOf(' ', first + 1);
+        return second < 0 || second >= MAX_PREFIX_LENGTH ? 0 : second + 1;
+    }
+
+    /**
+     * Returns the one instance of the prefix shared by all nodes.
+     */
+    public static String internPrefix(String prefix) {
+        String shared = SHARED_PREFIXES.putIfAbsent(prefix, prefix);
+        return shared == null ? prefix : shared;
+    }
+
+    public static byte[] encode(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String decode(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static boolean isLatin1(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the text with one byte per char when it is Latin-1, otherwise as UTF-8.
+     */
+    public static byte[] encode(String text, boolean latin1) {
+        return text.getBytes(latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+    public static String decode(byte[] bytes, int offset, int length, boolean latin1) {
+        return new String(bytes, offset, length, latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+}
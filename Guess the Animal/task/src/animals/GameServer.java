@@ -0,0 +1,78 @@
+package animals;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the console game over a local TCP socket, one thread per connection.
+ * <p>
+ * The server can hold a knowledge base for each of several languages. When it has more than one,
+ * a session starts by asking for the language, and every session of a language plays against
+ * the same knowledge base.
+ */
+public class GameServer {
+    private final Map<String, KnowledgeBase> knowledgeBases;
+    private final KnowledgeBase defaultKnowledgeBase;
+    private final int port;
+    private final ExecutorService sessions = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "game-session");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public GameServer(KnowledgeBase knowledgeBase, int port) {
+        this(Map.of(knowledgeBase.getLocale().getLanguage(), knowledgeBase), port);
+    }
+
+    /**
+     * Serves the knowledge bases by language code; the first one is taken when a player's answer isn't one of them.
+     */
+    public GameServer(Map<String, KnowledgeBase> knowledgeBases, int port) {
+        this.knowledgeBases = knowledgeBases;
+        this.defaultKnowledgeBase = knowledgeBases.values().iterator().next();
+        this.port = port;
+    }
+
+    public void run() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress())) {
+            System.out.println("Listening on " + serverSocket.getLocalSocketAddress());
+            while (!serverSocket.isClosed()) {
+                Socket socket = serverSocket.accept();
+                sessions.execute(() -> serve(socket));
+            }
+        } finally {
+            sessions.shutdownNow();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             Scanner scanner = new Scanner(socket.getInputStream(), StandardCharsets.UTF_8);
+             PrintStream out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            new UserInterface(scanner, out, chooseKnowledgeBase(scanner, out)).startSession();
+        } catch (NoSuchElementException e) {
+            // the player disconnected in the middle of a session
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private KnowledgeBase chooseKnowledgeBase(Scanner scanner, PrintStream out) {
+        if (knowledgeBases.size() == 1) {
+            return defaultKnowledgeBase;
+        }
+        out.println("Language (" + String.join(", ", knowledgeBases.keySet()) + "):");
+        String language = scanner.nextLine().trim().toLowerCase(Locale.ROOT);
+        return knowledgeBases.getOrDefault(language, defaultKnowledgeBase);
+    }
+}
@@ -0,0 +1,240 @@
+package animals;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Reads and writes the json, xml and yaml files token by token, in the layout the Jackson mappers use
+ * for {@link Node}: every node is an object with its id, fact, "no" and "yes" subtrees, the id of its
+ * parent and its hits. Ids are given in pre-order starting at 1, like {@code @JsonIdentityInfo} does;
+ * yaml writes them as anchors and aliases. Nesting is tracked with explicit stacks, so deep trees
+ * need no recursion and only the open nodes are kept. The game reads and saves these formats
+ * here rather than with the mappers' recursive serializers.
+ */
+public final class JacksonTreeFormat {
+    // marks where a node ends in the stack of write
+    private static final Node END = new Node();
+
+    private JacksonTreeFormat() {
+    }
+
+    /**
+     * Streams the tree from the parser into the sink and returns the number of nodes.
+     * The ids and parents in the file are skipped, the nesting already tells the parents.
+     */
+    public static long read(JsonParser parser, NodeSink sink) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Not an animal tree at " + parser.getCurrentLocation());
+        }
+        Deque<OpenNode> open = new ArrayDeque<>();
+        open.push(new OpenNode(true));
+        long nodes = 0;
+        while (!open.isEmpty()) {
+            JsonToken token = parser.nextToken();
+            OpenNode node = open.peek();
+            if (token == JsonToken.END_OBJECT) {
+                open.pop();
+                if (node.children == 1) {
+                    throw new IOException("A statement needs both answers at " + parser.getCurrentLocation());
+                }
+                nodes += start(node, sink, parser);
+                sink.endNode(node.hits);
+                continue;
+            }
+            if (token != JsonToken.FIELD_NAME) {
+                throw new IOException("Not an animal tree at " + parser.getCurrentLocation());
+            }
+            String name = parser.getCurrentName();
+            token = parser.nextToken();
+            switch (name) {
+                case "fact":
+                    node.fact = parser.getText();
+                    break;
+                case "hits":
+                    node.hits = parser.getValueAsLong();
+                    break;
+                case "left":
+                case "right":
+                    if (token == JsonToken.VALUE_NULL) {
+                        break;
+                    }
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new IOException("Nodes shared between subtrees aren't supported at "
+                                + parser.getCurrentLocation());
+                    }
+                    nodes += start(node, sink, parser);
+                    node.children++;
+                    open.push(new OpenNode(name.equals("right")));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Hands the node to the sink when its first child or its end comes; returns 1 when it did.
+     */
+    private static int start(OpenNode node, NodeSink sink, JsonParser parser) throws IOException {
+        if (node.started) {
+            return 0;
+        }
+        if (node.fact == null) {
+            throw new IOException("The fact has to come before the subtrees at " + parser.getCurrentLocation());
+        }
+        sink.startNode(node.fact, node.yes);
+        node.started = true;
+        return 1;
+    }
+
+    /**
+     * Builds the tree from the parser, see {@link #read(JsonParser, NodeSink)}.
+     */
+    public static Node read(JsonParser parser) throws IOException {
+        NodeBuilder builder = new NodeBuilder();
+        read(parser, builder);
+        return builder.root;
+    }
+
+    /**
+     * Writes the tree in the order the mapper does, the "no" subtree before the "yes" one.
+     */
+    public static void write(Node root, JsonGenerator generator) throws IOException {
+        NodeSink sink = newWriter(generator);
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<Node> open = new ArrayDeque<>();
+        nodes.push(root);
+        while (!nodes.isEmpty()) {
+            Node node = nodes.pop();
+            if (node == END) {
+                sink.endNode(open.pop().getHits());
+                continue;
+            }
+            sink.startNode(node.getFact(), !open.isEmpty() && open.peek().getRight() == node);
+            open.push(node);
+            nodes.push(END);
+            if (node.getRight() != null) {
+                nodes.push(node.getRight());
+            }
+            if (node.getLeft() != null) {
+                nodes.push(node.getLeft());
+            }
+        }
+        sink.finish();
+    }
+
+    public static NodeSink newWriter(JsonGenerator generator) {
+        return new StreamWriter(generator);
+    }
+
+    private static final class NodeBuilder implements NodeSink {
+        private final Deque<Node> open = new ArrayDeque<>();
+        private Node root;
+
+        @Override
+        public void startNode(String fact, boolean yes) {
+            Node parent = open.peek();
+            Node node = new Node(fact, parent);
+            if (parent == null) {
+                root = node;
+            } else if (yes) {
+                parent.setRight(node);
+            } else {
+                parent.setLeft(node);
+            }
+            open.push(node);
+        }
+
+        @Override
+        public void endNode(long hits) {
+            open.pop().setHits(hits);
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class OpenNode {
+        private final boolean yes;
+        private String fact;
+        private long hits;
+        private int children;
+        private boolean started;
+
+        private OpenNode(boolean yes) {
+            this.yes = yes;
+        }
+    }
+
+    private static final class StreamWriter implements NodeSink {
+        private final JsonGenerator generator;
+        private final boolean nativeIds;
+        private int[] open = new int[64];
+        private int depth;
+        private int lastId;
+
+        private StreamWriter(JsonGenerator generator) {
+            this.generator = generator;
+            this.nativeIds = generator.canWriteObjectId();
+        }
+
+        @Override
+        public void startNode(String fact, boolean yes) throws IOException {
+            if (depth > 0) {
+                generator.writeFieldName(yes ? "right" : "left");
+            }
+            int id = ++lastId;
+            // after the start, like the mapper: yaml puts the anchor on the first field's line
+            generator.writeStartObject();
+            if (nativeIds) {
+                generator.writeObjectId(id);
+            } else {
+                generator.writeNumberField("id", id);
+            }
+            generator.writeStringField("fact", fact);
+            if (depth == open.length) {
+                open = Arrays.copyOf(open, depth * 2);
+            }
+            open[depth++] = id;
+        }
+
+        @Override
+        public void endNode(long hits) throws IOException {
+            depth--;
+            if (depth > 0) {
+                generator.writeFieldName("parent");
+                if (nativeIds) {
+                    generator.writeObjectRef(open[depth - 1]);
+                } else {
+                    generator.writeNumber(open[depth - 1]);
+                }
+            }
+            if (hits != 0) {
+                generator.writeNumberField("hits", hits);
+            }
+            generator.writeEndObject();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            generator.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package animals;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of learned animals and finished games kept next to the database file.
+ * <p>
+ * A split record holds the path to the split leaf, the leaf's fact, the new statement,
+ * the new animal and the answer for it; a game record the path and the fact of the leaf the game
+ * ended at and the leaf's hits after it. Every record starts with its length, where bit 30 marks a game,
+ * and ends with a CRC32 so a record torn by a crash is dropped on replay. A record is only replayed
+ * when the path still ends at the same leaf, and a game only raises the leaf's hits to the recorded ones,
+ * so replaying over a snapshot that already contains a record, or a later game, does nothing.
+ * <p>
+ * Splits are forced to the disk before they are published, games are left to the operating system;
+ * a lost game count doesn't change what the game knows.
+ */
+public class Journal implements TreeListener, Closeable {
+    private static final int GAME = 1 << 30;
+    private final Path file;
+    private FileOutputStream out;
+    private long size;
+    private boolean paused;
+
+    public Journal(Path file) {
+        this.file = file;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Applies the records to the tree and cuts off a torn tail, if any.
+     * Returns the number of records that changed the tree.
+     */
+    public synchronized int replay(Tree tree) throws IOException {
+        int applied = 0;
+        long valid = 0;
+        if (Files.exists(file)) {
+            long fileSize = Files.size(file);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                int header;
+                byte[] record;
+                while ((header = readHeader(in)) != -1
+                        && (record = readRecord(in, header & ~GAME, fileSize - valid)) != null) {
+                    if ((header & GAME) != 0 ? applyGame(tree, record) : applySplit(tree, record)) {
+                        applied++;
+                    }
+                    valid += Integer.BYTES + record.length + Long.BYTES;
+                }
+            }
+        }
+        out = new FileOutputStream(file.toFile(), true);
+        out.getChannel().truncate(valid);
+        size = valid;
+        return applied;
+    }
+
+    /**
+     * Returns the length of the next record with the game flag, or -1 at the end of the file.
+     */
+    private static int readHeader(DataInputStream in) throws IOException {
+        try {
+            int header = in.readInt();
+            return header < 0 ? -1 : header;
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] readRecord(DataInputStream in, int length, long remaining) throws IOException {
+        try {
+            if (length > remaining) {
+                return null;
+            }
+            byte[] record = new byte[length];
+            in.readFully(record);
+            return in.readLong() == checksum(record) ? record : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static boolean applySplit(Tree tree, byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        Node leaf = findLeaf(tree, in);
+        if (leaf == null) {
+            return false;
+        }
+        String fact = readString(in);
+        String animal = readString(in);
+        boolean isTrueForAnimal = in.readBoolean();
+        tree.splitLeaf(leaf, fact, animal, isTrueForAnimal);
+        return true;
+    }
+
+    private static boolean applyGame(Tree tree, byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        Node leaf = findLeaf(tree, in);
+        if (leaf == null) {
+            return false;
+        }
+        long games = in.readLong() - leaf.getHits();
+        if (games <= 0) {
+            return false;
+        }
+        tree.countGames(leaf, games);
+        return true;
+    }
+
+    /**
+     * Reads the path and the leaf's fact of a record and returns the leaf, or null when the path
+     * doesn't end at that leaf.
+     */
+    private static Node findLeaf(Tree tree, DataInputStream in) throws IOException {
+        String path = readString(in);
+        String leafFact = readString(in);
+        Node leaf = tree.findByPath(path);
+        if (leaf == null || !tree.isALeaf(leaf) || !leaf.getFact().equals(leafFact)) {
+            return null;
+        }
+        return leaf;
+    }
+
+    @Override
+    public synchronized void beforeSplit(Node leaf, String fact, String animal, boolean isTrueForAnimal) {
+        if (out == null || paused) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(bytes);
+            writeString(record, Tree.getPath(leaf));
+            writeString(record, leaf.getFact());
+            writeString(record, fact);
+            writeString(record, animal);
+            record.writeBoolean(isTrueForAnimal);
+            append(bytes, 0);
+            out.getChannel().force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Records a game that ended at the leaf, which has the given hits with it, unless the journal is paused.
+     */
+    public synchronized void recordGame(Node leaf, long hits) {
+        if (out == null || paused) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(bytes);
+            writeString(record, Tree.getPath(leaf));
+            writeString(record, leaf.getFact());
+            record.writeLong(hits);
+            append(bytes, GAME);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void append(ByteArrayOutputStream bytes, int flags) throws IOException {
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(bytes.size() + 12);
+        DataOutputStream frame = new DataOutputStream(framed);
+        frame.writeInt(bytes.size() | flags);
+        bytes.writeTo(frame);
+        frame.writeLong(checksum(bytes.toByteArray()));
+        framed.writeTo(out);
+        out.flush();
+        size += framed.size();
+    }
+
+    /**
+     * Stops or resumes recording, for bulk changes that are saved as a snapshot instead.
+     */
+    public synchronized void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    /**
+     * Empties the journal once its records are part of a saved snapshot.
+     */
+    public synchronized void reset() throws IOException {
+        if (out != null) {
+            out.getChannel().truncate(0);
+        }
+        size = 0;
+    }
+
+    /**
+     * Drops the first bytes, whose records are part of a saved snapshot, and keeps the records
+     * appended since. The rest is written to a new file that replaces the journal atomically;
+     * when that fails, the journal keeps all its records and stays open.
+     */
+    public synchronized void dropHead(long length) throws IOException {
+        if (out == null || length <= 0) {
+            return;
+        }
+        if (length >= size) {
+            reset();
+            return;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (long position = length; position < size; ) {
+                position += source.transferTo(position, size - position, target);
+            }
+            target.force(false);
+        }
+        // the new file is opened before it replaces the journal, so a failed move leaves the journal as it was
+        FileOutputStream next = new FileOutputStream(temp.toFile(), true);
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            next.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        FileOutputStream previous = out;
+        out = next;
+        size -= length;
+        previous.close();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        BinaryTreeFormat.writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[BinaryTreeFormat.readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,295 @@
+package animals;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A tree together with its database file and journal.
+ * One instance can be shared by any number of {@link UserInterface} sessions.
+ * <p>
+ * The tree is saved by a background thread: every animals.save.everyChanges learned animals and games,
+ * once the journal grows past animals.journal.compactBytes, and every animals.save.intervalSeconds while
+ * anything is unsaved. The version to save is taken under the tree's lock and copied, then written without it,
+ * so players keep learning while the file is written. An idx file isn't copied for: only the nodes that
+ * changed since the last save are appended to it, and the statistics are kept in it.
+ */
+public class KnowledgeBase implements TreeListener, Closeable {
+    private static final long JOURNAL_COMPACT_BYTES = Long.getLong("animals.journal.compactBytes", 1 << 20);
+    private static final long SAVE_EVERY_CHANGES = Long.getLong("animals.save.everyChanges", 1000);
+    private static final long SAVE_INTERVAL_SECONDS = Long.getLong("animals.save.intervalSeconds", 60);
+    private static final Metrics METRICS = Metrics.getDefault();
+    private static final Metrics.Counter GAMES = METRICS.counter("animals_games_total", "Games played to the end");
+    private static final Metrics.Counter GAMES_WON = METRICS.counter("animals_games_won_total", "Games where the animal was guessed");
+    private static final Metrics.Counter FACTS_LEARNED = METRICS.counter("animals_facts_learned_total", "Statements learned from players");
+
+    private final Database database;
+    private final Tree tree;
+    private final LanguageRules rules;
+    private Journal journal;
+    private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tree-saver");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // taken before the tree's lock by everything that writes the database
+    private final Object saveLock = new Object();
+    private Future<?> pendingSave;
+    private final AtomicLong unsavedGames = new AtomicLong();
+    private final AtomicLong unsavedSplits = new AtomicLong();
+    private volatile boolean batchRunning;
+
+    /**
+     * The knowledge base of the given language, with its own file and the rules of that language.
+     */
+    public KnowledgeBase(String type, Locale locale) {
+        this(new Database(type, locale), LanguageRules.forLocale(locale));
+    }
+
+    public KnowledgeBase(Database database, LanguageRules rules) {
+        this.database = database;
+        this.rules = rules;
+        this.tree = new Tree(rules);
+        String file = database.getFilename();
+        METRICS.gauge("animals_tree_nodes", "Nodes in the tree", () -> getStatistics().getNodes(), "file", file);
+        METRICS.gauge("animals_tree_animals", "Animals in the tree", () -> getStatistics().getAnimals(), "file", file);
+        METRICS.gauge("animals_tree_height", "Depth of the deepest animal", () -> getStatistics().getHeight(), "file", file);
+        METRICS.gauge("animals_tree_average_depth", "Average depth of the animals",
+                () -> getStatistics().getAverageDepth(), "file", file);
+    }
+
+    private TreeStatistics getStatistics() {
+        return tree.getRoot() == null ? TreeStatistics.of(null) : tree.getStatistics();
+    }
+
+    public Tree getTree() {
+        return tree;
+    }
+
+    public LanguageRules getRules() {
+        return rules;
+    }
+
+    public Database getDatabase() {
+        return database;
+    }
+
+    public Locale getLocale() {
+        return database.getLocale();
+    }
+
+    /**
+     * Reads the database and replays the journal. Returns false when there is no tree yet.
+     */
+    public boolean load() {
+        Node root = database.readFromFile();
+        tree.setRoot(root, database.getStoredStatistics());
+        if (tree.getRoot() == null) {
+            return false;
+        }
+        openJournal(true);
+        return true;
+    }
+
+    /**
+     * Starts a new tree with a single animal.
+     */
+    public void create(String animal) {
+        tree.setRoot(new Node(rules.toLeafFact(animal), null));
+        database.saveToFile(tree.getRoot());
+        openJournal(false);
+    }
+
+    private void openJournal(boolean replay) {
+        journal = new Journal(Paths.get(database.getFilename() + ".journal"));
+        try {
+            if (!replay) {
+                Files.deleteIfExists(journal.getFile());
+            }
+            // the replayed records are only in the journal, so the next periodic save folds them in
+            unsavedGames.addAndGet(journal.replay(tree));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        tree.addListener(journal);
+        tree.addListener(this);
+        if (SAVE_INTERVAL_SECONDS > 0) {
+            saver.scheduleWithFixedDelay(this::saveIfChanged, SAVE_INTERVAL_SECONDS, SAVE_INTERVAL_SECONDS,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Counts a finished game for the animal it ended with, which was either guessed or learned.
+     * The game is journaled and the counts are written with the next snapshot.
+     */
+    public void countGame(Node leaf, boolean won) {
+        long hits = tree.countGame(leaf);
+        if (journal != null) {
+            journal.recordGame(leaf, hits);
+        }
+        unsavedGames.incrementAndGet();
+        GAMES.increment();
+        if (won) {
+            GAMES_WON.increment();
+        }
+        if (!batchRunning) {
+            saveIfNeeded();
+        }
+    }
+
+    @Override
+    public void afterSplit(Node statement) {
+        FACTS_LEARNED.increment();
+        unsavedSplits.incrementAndGet();
+        if (!batchRunning) {
+            saveIfNeeded();
+        }
+    }
+
+    /**
+     * Runs a bulk change of the tree without journaling every learned animal and saves the tree once at the end.
+     * Other sessions keep playing on the published versions, but can't learn until the batch is done.
+     * Returns false when the tree couldn't be saved.
+     */
+    public boolean runBatch(Runnable batch) {
+        synchronized (saveLock) {
+            synchronized (tree) {
+                journal.setPaused(true);
+                batchRunning = true;
+                try {
+                    batch.run();
+                } finally {
+                    batchRunning = false;
+                    journal.setPaused(false);
+                }
+            }
+            return saveSnapshot();
+        }
+    }
+
+    /**
+     * Merges the leaves of animals that were taught more than once with {@link TreeDeduplicator}
+     * and, when there were any, publishes and saves the new tree. Returns null when animals were learned
+     * in the meantime.
+     */
+    public TreeDeduplicator.Result deduplicate() {
+        Node root;
+        long version;
+        synchronized (tree) {
+            root = tree.getRoot();
+            version = tree.getVersion();
+        }
+        TreeDeduplicator.Result result = TreeDeduplicator.deduplicate(root, rules);
+        if (result.getDuplicates().isEmpty()) {
+            return result;
+        }
+        return replaceRoot(root, version, result.getRoot()) ? result : null;
+    }
+
+    /**
+     * Publishes a rebuilt tree unless the tree changed since the given version.
+     * The new tree has other paths than the journal records, so the journal is first folded into
+     * a snapshot of the old tree and emptied; a crash at any point leaves a consistent database.
+     * When the new tree can't be saved, the old one stays and false is returned.
+     */
+    private boolean replaceRoot(Node root, long version, Node newRoot) {
+        synchronized (saveLock) {
+            synchronized (tree) {
+                if (tree.getVersion() != version) {
+                    return false;
+                }
+                try {
+                    if (journal.getSize() > 0) {
+                        if (!database.saveToFile(root)) {
+                            return false;
+                        }
+                        journal.reset();
+                    }
+                    // the journal now follows the file, so the new tree is only published once it is saved
+                    if (!database.saveToFile(newRoot)) {
+                        return false;
+                    }
+                    tree.setRoot(newRoot);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Saves a snapshot in the background once enough changed or the journal grows past its threshold.
+     */
+    private synchronized void saveIfNeeded() {
+        if (unsavedSplits.get() + unsavedGames.get() < SAVE_EVERY_CHANGES && journal.getSize() < JOURNAL_COMPACT_BYTES
+                || pendingSave != null && !pendingSave.isDone()) {
+            return;
+        }
+        pendingSave = saver.submit(this::saveSnapshot);
+    }
+
+    private void saveIfChanged() {
+        if (!batchRunning && unsavedSplits.get() + unsavedGames.get() > 0) {
+            saveSnapshot();
+        }
+    }
+
+    /**
+     * Writes the current version to the database and drops the journal records it contains.
+     * Only taking the version holds the tree's lock; the copy is written while players go on.
+     * An idx file gets the tree itself with the statistics of the version, see {@link Database#saveToFile(Node, TreeStatistics)}.
+     */
+    private boolean saveSnapshot() {
+        synchronized (saveLock) {
+            Node root;
+            long journalSize;
+            long games;
+            long splits;
+            TreeStatistics statistics;
+            boolean idx = database.getType().equals("idx");
+            synchronized (tree) {
+                root = tree.getRoot();
+                statistics = idx ? tree.getStatistics().copy() : null;
+                journalSize = journal.getSize();
+                games = unsavedGames.get();
+                splits = unsavedSplits.get();
+            }
+            if (!database.saveToFile(idx ? root : Tree.copy(root), statistics)) {
+                return false;
+            }
+            unsavedGames.addAndGet(-games);
+            unsavedSplits.addAndGet(-splits);
+            try {
+                journal.dropHead(journalSize);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void close() {
+        saver.shutdown();
+        try {
+            saver.awaitTermination(1, TimeUnit.MINUTES);
+            if (journal != null) {
+                journal.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
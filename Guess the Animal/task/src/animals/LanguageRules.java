@@ -0,0 +1,189 @@
+package animals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled form of patterns.properties for one language.
+ * Bundles are loaded once per language and shared by every Tree and UserInterface.
+ */
+public class LanguageRules {
+    /**
+     * The bundles are plain properties files found by the language alone: no bundle classes are looked for,
+     * and a language without its own file gets the base file, not the one of the default locale.
+     */
+    static final ResourceBundle.Control PROPERTIES_ONLY =
+            ResourceBundle.Control.getNoFallbackControl(ResourceBundle.Control.FORMAT_PROPERTIES);
+    private static final Map<String, LanguageRules> CACHE = new ConcurrentHashMap<>();
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("\\W$");
+    private static final int ANSWER_CACHE_SIZE = 256;
+    private static final Metrics.Counter EVALUATIONS = Metrics.getDefault().counter(
+            "animals_regex_evaluations_total", "Patterns matched against input or facts");
+
+    private final String statementPrefix;
+    private final Pattern statementPrefixPattern;
+    private final Pattern positiveAnswer;
+    private final Pattern negativeAnswer;
+    private final Pattern animal;
+    private final Pattern statement;
+    private final List<Rule> questions;
+    private final List<Rule> negatives;
+    private final List<Rule> animalFacts;
+    private final List<Rule> definites;
+    private final List<Rule> animalNames;
+    private final Map<String, Boolean> answers = new ConcurrentHashMap<>();
+
+    private LanguageRules(ResourceBundle patternRes) {
+        statementPrefix = patternRes.getString("statement.0");
+        statementPrefixPattern = Pattern.compile(statementPrefix);
+        positiveAnswer = Pattern.compile(patternRes.getString("positiveAnswer.isCorrect"));
+        negativeAnswer = Pattern.compile(patternRes.getString("negativeAnswer.isCorrect"));
+        animal = Pattern.compile(patternRes.getString("animal.1.pattern"));
+        statement = Pattern.compile(patternRes.getString("statement.1.pattern"));
+        questions = loadRules(patternRes, "question");
+        negatives = loadRules(patternRes, "negative");
+        animalFacts = loadRules(patternRes, "animalFact");
+        definites = loadRules(patternRes, "definite");
+        animalNames = loadRules(patternRes, "animalName");
+    }
+
+    public static LanguageRules forLocale(Locale locale) {
+        return CACHE.computeIfAbsent(locale.getLanguage(), language ->
+                new LanguageRules(ResourceBundle.getBundle("patterns", new Locale(language), PROPERTIES_ONLY)));
+    }
+
+    private static List<Rule> loadRules(ResourceBundle patternRes, String name) {
+        List<Rule> rules = new ArrayList<>();
+        for (int i = 1; patternRes.containsKey(name + "." + i + ".pattern"); i++) {
+            rules.add(new Rule(Pattern.compile(patternRes.getString(name + "." + i + ".pattern")),
+                    patternRes.getString(name + "." + i + ".replace")));
+        }
+        return Collections.unmodifiableList(rules);
+    }
+
+    public String askQuestion(String statement) {
+        String question = applyFirst(questions, statement);
+        return question == null ? "" : question;
+    }
+
+    public String makeNegative(String statement) {
+        String negative = applyFirst(negatives, statement);
+        return negative == null ? "" : negative;
+    }
+
+    /**
+     * Turns a statement into a printf format with the animal as %s,
+     * or returns null when no animalFact rule matches.
+     */
+    public String toAnimalFact(String statement) {
+        return applyFirst(animalFacts, statement);
+    }
+
+    public String replaceArticleWithDeterminer(String animal) {
+        String definite = applyFirst(definites, animal);
+        return definite == null ? animal : definite;
+    }
+
+    /**
+     * Returns TRUE for a yes, FALSE for a no and null for anything else, ignoring trailing punctuation.
+     * Players give the same few answers over and over, so the first yes and no answers are remembered
+     * as they were typed and aren't matched again.
+     */
+    public Boolean evaluateAnswer(String input) {
+        Boolean known = answers.get(input);
+        if (known != null) {
+            return known;
+        }
+        String answer = TRAILING_PUNCTUATION.matcher(input).replaceFirst("").trim();
+        Boolean result = isPositiveAnswer(answer) ? Boolean.TRUE : isNegativeAnswer(answer) ? Boolean.FALSE : null;
+        if (result != null && answers.size() < ANSWER_CACHE_SIZE) {
+            answers.put(input, result);
+        }
+        return result;
+    }
+
+    public boolean isPositiveAnswer(String answer) {
+        EVALUATIONS.increment();
+        return positiveAnswer.matcher(answer).find();
+    }
+
+    public boolean isNegativeAnswer(String answer) {
+        EVALUATIONS.increment();
+        return negativeAnswer.matcher(answer).find();
+    }
+
+    /**
+     * Returns the animal part of the input, or null when the input isn't an animal.
+     */
+    public String findAnimal(String input) {
+        EVALUATIONS.increment();
+        Matcher matcher = animal.matcher(input);
+        return matcher.find() ? matcher.group() : null;
+    }
+
+    /**
+     * Returns the statement part of the input, or null when the input isn't a statement.
+     */
+    public String findStatement(String input) {
+        EVALUATIONS.increment();
+        Matcher matcher = statement.matcher(input);
+        return matcher.find() ? matcher.group() : null;
+    }
+
+    public String getAnimalName(String fact) {
+        EVALUATIONS.increment();
+        return statementPrefixPattern.matcher(fact).replaceFirst("").trim();
+    }
+
+    /**
+     * Returns the animal of a leaf fact without its article, e.g. "sea lion" for "it is a sea lion".
+     */
+    public String getBareName(String fact) {
+        return stripArticle(getAnimalName(fact));
+    }
+
+    /**
+     * Returns the animal without its article, e.g. "sea lion" for "a sea lion".
+     */
+    public String stripArticle(String animal) {
+        String bare = applyFirst(animalNames, animal);
+        return bare == null ? animal : bare;
+    }
+
+    public String toLeafFact(String animal) {
+        return statementPrefix + " " + animal;
+    }
+
+    private static String applyFirst(List<Rule> rules, String input) {
+        for (Rule rule : rules) {
+            EVALUATIONS.increment();
+            Matcher matcher = rule.pattern.matcher(input);
+            if (matcher.find()) {
+                // what replaceAll does, without matching the first occurrence again
+                StringBuilder result = new StringBuilder(input.length() + 16);
+                do {
+                    matcher.appendReplacement(result, rule.replace);
+                } while (matcher.find());
+                return matcher.appendTail(result).toString();
+            }
+        }
+        return null;
+    }
+
+    private static final class Rule {
+        private final Pattern pattern;
+        private final String replace;
+
+        private Rule(Pattern pattern, String replace) {
+            this.pattern = pattern;
+            this.replace = replace;
+        }
+    }
+}
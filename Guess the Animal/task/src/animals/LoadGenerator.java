@@ -0,0 +1,118 @@
+package animals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays scripted games against a running {@link GameServer} (English messages)
+ * and reports games per second and question latency.
+ * <p>
+ * Usage: LoadGenerator &lt;port&gt; &lt;players&gt; &lt;games per player&gt;
+ */
+public class LoadGenerator {
+    private final int port;
+    private final AtomicInteger games = new AtomicInteger();
+    private final AtomicInteger learned = new AtomicInteger();
+
+    public LoadGenerator(int port) {
+        this.port = port;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = Integer.parseInt(args[0]);
+        int players = Integer.parseInt(args[1]);
+        int gamesPerPlayer = Integer.parseInt(args[2]);
+        new LoadGenerator(port).run(players, gamesPerPlayer);
+    }
+
+    public void run(int players, int gamesPerPlayer) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(players);
+        List<Future<long[]>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int player = 0; player < players; player++) {
+            int id = player;
+            results.add(pool.submit(() -> play(id, gamesPerPlayer)));
+        }
+        List<long[]> latencies = new ArrayList<>();
+        int questions = 0;
+        for (Future<long[]> result : results) {
+            long[] playerLatencies = result.get();
+            latencies.add(playerLatencies);
+            questions += playerLatencies.length;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        long[] all = new long[questions];
+        int offset = 0;
+        for (long[] playerLatencies : latencies) {
+            System.arraycopy(playerLatencies, 0, all, offset, playerLatencies.length);
+            offset += playerLatencies.length;
+        }
+        Arrays.sort(all);
+        System.out.printf("%d players, %d games, %d learned animals, %d questions in %.2f s%n",
+                players, games.get(), learned.get(), questions, seconds);
+        System.out.printf("games per second      %.1f%n", games.get() / seconds);
+        System.out.printf("question latency p50  %.3f ms%n", percentile(all, 0.50) / 1e6);
+        System.out.printf("question latency p99  %.3f ms%n", percentile(all, 0.99) / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, sorted.length * percentile)];
+    }
+
+    private long[] play(int player, int gamesToPlay) throws IOException {
+        Random random = new Random(player);
+        long[] latencies = new long[64];
+        int count = 0;
+        int played = 0;
+        boolean inGame = false;
+        long sent = 0;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("0. ")) {
+                    out.println(inGame ? "0" : "1");
+                    inGame = true;
+                } else if (line.startsWith("Press enter")) {
+                    sent = System.nanoTime();
+                    out.println();
+                } else if (line.startsWith("I give up")) {
+                    out.println("a p" + player + "x" + played);
+                } else if (line.startsWith("The sentence should be")) {
+                    out.println("it can do p" + player + "x" + played);
+                } else if (line.startsWith("Is the statement correct")) {
+                    out.println(random.nextBoolean() ? "yes" : "no");
+                    learned.incrementAndGet();
+                } else if (line.startsWith("Want to try again")) {
+                    played++;
+                    games.incrementAndGet();
+                    out.println(played < gamesToPlay ? "yes" : "no");
+                } else if (line.endsWith("?")) {
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - sent;
+                    sent = System.nanoTime();
+                    out.println(random.nextBoolean() ? "yes" : "no");
+                }
+            }
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+}
@@ -1,20 +1,151 @@
 package animals;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
 
 public class Main {
-    public static void main(String[] args) {
-        String language = "en";
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("convert")) {
+            TreeConverter.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        String language = Locale.getDefault().getLanguage();
         String type = "json";
+        int serverPort = -1;
+        int analyzeThreads = 0;
+        String exportFile = null;
+        String importFile = null;
+        String dedupMode = null;
         if(args.length>0){
-            //language = args[2].replaceAll(".+=", "");
-            type = args[1];
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                switch (args[i]) {
+                    case "-language":
+                        language = args[i + 1];
+                        break;
+                    case "-type":
+                        type = args[i + 1];
+                        break;
+                    case "-server":
+                        serverPort = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "-analyze":
+                        analyzeThreads = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "-import":
+                        importFile = args[i + 1];
+                        break;
+                    case "-dedup":
+                        dedupMode = args[i + 1];
+                        break;
+                    case "--export-tree":
+                        exportFile = args[i + 1];
+                        break;
+                    default:
+                }
+            }
             System.out.println(Arrays.toString(args
             ));
         }
 
+        Metrics.getDefault().startExports();
+
+        if (importFile != null) {
+            Path file = Paths.get(importFile);
+            withKnowledgeBase(type, language, "import into", knowledgeBase -> {
+                BatchImporter importer = new BatchImporter(knowledgeBase, System.err);
+                long start = System.nanoTime();
+                boolean saved = importer.importFile(file);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%d records in %.2f s (%.0f records/s): %d animals learned, %d games, %d skipped%s%n",
+                        importer.getRecords(), seconds, importer.getRecords() / seconds, importer.getLearned(),
+                        importer.getGames(), importer.getSkipped(), saved ? "" : ", the tree was NOT saved");
+            });
+            return;
+        }
+
+        if (dedupMode != null) {
+            // -dedup check reports the animals taught more than once, -dedup apply also merges them
+            boolean apply = dedupMode.equals("apply");
+            withKnowledgeBase(type, language, "deduplicate", knowledgeBase -> {
+                TreeDeduplicator.Result result = apply ? knowledgeBase.deduplicate()
+                        : TreeDeduplicator.deduplicate(knowledgeBase.getTree().getRoot(), knowledgeBase.getRules());
+                for (TreeDeduplicator.Duplicate duplicate : result.getDuplicates()) {
+                    System.out.println(knowledgeBase.getRules().getAnimalName(duplicate.getFact()) + ": "
+                            + duplicate.getLeaves() + " leaves"
+                            + (duplicate.getConflicts().isEmpty() ? "" : ", answered both ways: " + duplicate.getConflicts()));
+                }
+                System.out.println(result.getDuplicates().size() + " animals on more than one leaf"
+                        + (apply ? ", " + result.getRemovedLeaves() + " leaves removed" : ""));
+                System.out.printf(Locale.ROOT, "%.1f questions on average, %.1f without the duplicates%n",
+                        result.getAverageDepthBefore(), result.getAverageDepthAfter());
+            });
+            return;
+        }
+
+        if (exportFile != null) {
+            Path file = Paths.get(exportFile);
+            withKnowledgeBase(type, language, "export", knowledgeBase ->
+                    TreePrinter.export(knowledgeBase.getTree().getRoot(), knowledgeBase.getRules(), file));
+            return;
+        }
+
+        if (analyzeThreads > 0) {
+            int threads = analyzeThreads;
+            withKnowledgeBase(type, language, "analyze", knowledgeBase -> {
+                Node root = knowledgeBase.getTree().getRoot();
+                TreeAnalytics.of(root, knowledgeBase.getRules()).print(System.out);
+                TreeAnalytics.printSpeedup(root, knowledgeBase.getRules(), threads, System.out);
+            });
+            return;
+        }
+
+        if (serverPort >= 0) {
+            // -language en,eo serves both languages, each from its own tree
+            Map<String, KnowledgeBase> knowledgeBases = new LinkedHashMap<>();
+            for (String serverLanguage : language.split(",")) {
+                KnowledgeBase knowledgeBase = new KnowledgeBase(type, new Locale(serverLanguage));
+                if (!knowledgeBase.load()) {
+                    System.out.println("The server needs an existing " + knowledgeBase.getDatabase().getFilename());
+                    knowledgeBases.values().forEach(KnowledgeBase::close);
+                    return;
+                }
+                knowledgeBases.put(serverLanguage, knowledgeBase);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> knowledgeBases.values().forEach(KnowledgeBase::close)));
+            new GameServer(knowledgeBases, serverPort).run();
+            return;
+        }
+
         new UserInterface(new Scanner(System.in), type, language).start();
 
     }
+
+    /** A command line action run against a loaded knowledge base. */
+    private interface Command {
+        void run(KnowledgeBase knowledgeBase) throws IOException;
+    }
+
+    /**
+     * Loads the knowledge base, runs the action and closes the knowledge base even when the action fails,
+     * so the saver thread and the journal are released.
+     */
+    private static void withKnowledgeBase(String type, String language, String purpose, Command action)
+            throws IOException {
+        KnowledgeBase knowledgeBase = new KnowledgeBase(type, new Locale(language));
+        try {
+            if (!knowledgeBase.load()) {
+                System.out.println("There is no " + knowledgeBase.getDatabase().getFilename() + " to " + purpose);
+                return;
+            }
+            action.run(knowledgeBase);
+        } finally {
+            knowledgeBase.close();
+        }
+    }
 }
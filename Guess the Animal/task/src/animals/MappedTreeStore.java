@@ -0,0 +1,602 @@
+package animals;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Indexed node file that is memory-mapped and turned into {@link Node}s only as the tree is walked,
+ * and that a save of the same tree only appends to.
+ * <p>
+ * Layout: the magic and the version, two header slots and the records. A node's record holds the offsets
+ * of its "no" and "yes" records (-1 when there is no child), its hits, the offset of its prefix record
+ * (see {@link FactStore#prefixLength(String)}; -1 when it has none) and the rest of its fact as its length
+ * and bytes, Latin-1 or UTF-8 when the length has the top bit set; a prefix record is the prefix's UTF-8
+ * length and bytes. Records start at multiples of 8, and the children's records come before their parent's.
+ * A header slot holds a sequence number, the end of the records, the offsets of the root and of the
+ * {@link TreeStatistics}, the end of the file when it was last written whole, and a CRC of the slot;
+ * the valid slot with the higher sequence number counts.
+ * <p>
+ * Every node remembers the offset of its record ({@link Node#getStored()}) until its hits change, and a
+ * node is new or changed whenever one below it is. {@link #append} thus writes the records of the new and
+ * changed nodes only, usually the paths of the games and the learned animals since the last save, and
+ * takes the records of everything else from the file; then it overwrites the older slot, so a crash
+ * leaves the previous version. A file that grew by more than it had when it was last written whole is
+ * rewritten when it is opened.
+ */
+public class MappedTreeStore {
+    private static final int MAGIC = 0x47544149; // "GTAI"
+    private static final int VERSION = 4;
+    private static final int UTF_8 = 1 << 31;
+    private static final int NO_NODE = -1;
+    private static final int SLOT = 8;
+    private static final int SLOT_SIZE = 32;
+    private static final int DATA_START = SLOT + 2 * SLOT_SIZE;
+    private static final int NODE_FACT = 24;
+
+    // the file up to the end of the version read
+    private final MappedByteBuffer records;
+    private final Path file;
+    private final Map<Integer, String> prefixesByOffset = new ConcurrentHashMap<>();
+    private final Map<String, Integer> prefixOffsets = new ConcurrentHashMap<>();
+    private Slot slot;
+    private TreeStatistics statistics;
+
+    private MappedTreeStore(Path file, Slot slot, MappedByteBuffer records) {
+        this.records = records;
+        this.file = file;
+        this.slot = slot;
+        this.statistics = TreeStatistics.read(records.duplicate().position(slot.statistics));
+    }
+
+    public static MappedTreeStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SLOT);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Truncated animal index file");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not an animal index file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported animal index file version " + version);
+            }
+            Slot slot = Slot.newest(channel);
+            if (slot == null || slot.end > channel.size() || slot.statistics < DATA_START
+                    || slot.statistics >= slot.end) {
+                throw new IOException("Damaged animal index file");
+            }
+            return new MappedTreeStore(file, slot, channel.map(FileChannel.MapMode.READ_ONLY, 0, slot.end));
+        }
+    }
+
+    /**
+     * Writes the whole tree to the file, counting its statistics on the way,
+     * and makes every node remember its record there.
+     */
+    public static void save(Node root, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeStart(channel);
+            Appender out = new Appender(channel, DATA_START, new HashMap<>());
+            TreeStatistics counted = new TreeStatistics();
+            int rootOffset = root == null ? NO_NODE : writeNodes(root, true, out, counted);
+            int statisticsOffset = out.writeStatistics(counted);
+            int end = out.finish();
+            commit(channel, new Slot(1, end, rootOffset, statisticsOffset, end));
+        }
+    }
+
+    /**
+     * Appends the nodes of the tree that changed since it was read from this file or last saved to it,
+     * and makes it the current version with the given statistics. Returns the number of bytes appended.
+     * The nodes' offsets only hold for this file, so the tree must not have been saved to another idx
+     * file in between, and after a failed append the next save has to write a new file.
+     */
+    public synchronized long append(Node root, TreeStatistics statistics) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            Appender out = new Appender(channel, slot.end, prefixOffsets);
+            int rootOffset = root == null ? NO_NODE : writeNodes(root, false, out, null);
+            // the statistics only change with the animals, games alone keep the written ones
+            int statisticsOffset = this.statistics.equals(statistics)
+                    ? slot.statistics : out.writeStatistics(statistics);
+            int end = out.finish();
+            Slot next = new Slot(slot.sequence + 1, end, rootOffset, statisticsOffset, slot.written);
+            commit(channel, next);
+            long appended = end - slot.end;
+            slot = next;
+            this.statistics = statistics;
+            return appended;
+        }
+    }
+
+    /**
+     * Tells whether more was appended since the file was last written whole than it had then.
+     */
+    public boolean needsCompaction() {
+        return slot.end - slot.written > Math.max(slot.written - DATA_START, 1 << 20);
+    }
+
+    /**
+     * Returns a copy of the statistics of the current version.
+     */
+    public synchronized TreeStatistics getStatistics() {
+        return statistics.copy();
+    }
+
+    /**
+     * Appends the records of the tree and returns the offset of the root's record: all of them when full,
+     * otherwise only the nodes without a stored record, whose subtrees hold all the others.
+     * Children are written before their parents. A node only keeps its new offset when its hits and its
+     * children's offsets are still the written ones afterwards; a game counted meanwhile changes the nodes
+     * from its animal up, so when a node missed a change below it, it misses its own too.
+     */
+    private static int writeNodes(Node root, boolean full, Appender out, TreeStatistics counted)
+            throws IOException {
+        Deque<WriteFrame> open = new ArrayDeque<>();
+        open.push(new WriteFrame(root, 0, false));
+        int rootOffset = NO_NODE;
+        while (!open.isEmpty()) {
+            WriteFrame frame = open.peek();
+            Node node = frame.node;
+            int offset;
+            if (frame.stage == 0 && !full && node.getStored() != Node.NOT_STORED) {
+                offset = node.getStored();
+            } else if (frame.stage < 2) {
+                Node child = frame.stage++ == 0 ? node.getLeft() : node.getRight();
+                if (child != null) {
+                    open.push(new WriteFrame(child, frame.depth + 1, frame.stage == 2));
+                }
+                continue;
+            } else {
+                long hits = node.getHits();
+                offset = out.writeNode(frame.left, frame.right, hits, node.getFact());
+                node.setStored(offset);
+                if (node.getHits() != hits || changed(node.getLeft(), frame.left)
+                        || changed(node.getRight(), frame.right)) {
+                    node.setStored(Node.NOT_STORED);
+                }
+                if (counted != null) {
+                    counted.count(frame.left == NO_NODE && frame.right == NO_NODE, frame.depth);
+                }
+            }
+            open.pop();
+            WriteFrame parent = open.peek();
+            if (parent == null) {
+                rootOffset = offset;
+            } else if (frame.yes) {
+                parent.right = offset;
+            } else {
+                parent.left = offset;
+            }
+        }
+        return rootOffset;
+    }
+
+    private static boolean changed(Node child, int written) {
+        return child != null && child.getStored() != written;
+    }
+
+    private static void writeStart(FileChannel channel) throws IOException {
+        ByteBuffer start = ByteBuffer.allocate(DATA_START);
+        start.putInt(MAGIC).putInt(VERSION).rewind();
+        writeFully(channel, start, 0);
+    }
+
+    /**
+     * Forces the appended records to the disk before the slot that points to them, and then the slot.
+     */
+    private static void commit(FileChannel channel, Slot slot) throws IOException {
+        channel.force(false);
+        writeFully(channel, slot.toBuffer(), SLOT + (int) (slot.sequence % 2) * SLOT_SIZE);
+        channel.force(false);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Streams the tree into the sink without creating nodes and returns the number of nodes.
+     */
+    public long read(NodeSink sink) throws IOException {
+        if (slot.root == NO_NODE) {
+            return 0;
+        }
+        // offset << 1 | 1 for a node reached with "yes", offset << 1 for "no", -1 - offset for the end of a statement
+        long[] stack = new long[64];
+        int size = 0;
+        stack[size++] = (long) slot.root << 1 | 1;
+        long nodes = 0;
+        while (size > 0) {
+            long entry = stack[--size];
+            if (entry < 0) {
+                sink.endNode(getHits((int) (-1 - entry)));
+                continue;
+            }
+            int offset = (int) (entry >>> 1);
+            sink.startNode(getFact(offset), (entry & 1) == 1);
+            nodes++;
+            int left = getLeft(offset);
+            int right = getRight(offset);
+            if (left == NO_NODE && right == NO_NODE) {
+                sink.endNode(getHits(offset));
+                continue;
+            }
+            if (size + 3 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[size++] = -1L - offset;
+            if (right != NO_NODE) {
+                stack[size++] = (long) right << 1 | 1;
+            }
+            if (left != NO_NODE) {
+                stack[size++] = (long) left << 1;
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * A sink that writes a whole index file, counting the statistics of the tree as it comes.
+     */
+    public static NodeSink newWriter(Path file) throws IOException {
+        return new StreamWriter(file);
+    }
+
+    public Node getRoot() {
+        return slot.root == NO_NODE ? null : new MappedNode(this, slot.root, null);
+    }
+
+    /**
+     * Returns the fact of the node whose record is at the given offset.
+     */
+    String getFact(int offset) {
+        int prefix = records.getInt(offset + 16);
+        int length = records.getInt(offset + 20);
+        byte[] bytes = new byte[length & ~UTF_8];
+        records.duplicate().position(offset + NODE_FACT).get(bytes);
+        return (prefix == NO_NODE ? "" : getPrefix(prefix))
+                .concat(FactStore.decode(bytes, 0, bytes.length, (length & UTF_8) == 0));
+    }
+
+    /**
+     * Reads the prefix record once and remembers it both ways, so appending reuses it.
+     */
+    private String getPrefix(int offset) {
+        return prefixesByOffset.computeIfAbsent(offset, at -> {
+            byte[] bytes = new byte[records.getInt(at)];
+            records.duplicate().position(at + Integer.BYTES).get(bytes);
+            String prefix = FactStore.internPrefix(new String(bytes, StandardCharsets.UTF_8));
+            prefixOffsets.putIfAbsent(prefix, at);
+            return prefix;
+        });
+    }
+
+    int getLeft(int offset) {
+        return records.getInt(offset);
+    }
+
+    int getRight(int offset) {
+        return records.getInt(offset + 4);
+    }
+
+    long getHits(int offset) {
+        return records.getLong(offset + 8);
+    }
+
+    /**
+     * Node whose fact and children are read from the store the first time they are needed.
+     */
+    private static class MappedNode extends Node {
+        private final MappedTreeStore store;
+        private final int offset;
+        private volatile boolean factLoaded;
+        private volatile boolean childrenLoaded;
+
+        private MappedNode(MappedTreeStore store, int offset, Node parent) {
+            super(null, parent);
+            this.store = store;
+            this.offset = offset;
+            setHits(store.getHits(offset));
+            setStored(offset);
+        }
+
+        @Override
+        public String getFact() {
+            if (!factLoaded) {
+                loadFact();
+            }
+            return super.getFact();
+        }
+
+        @Override
+        public synchronized void setFact(String fact) {
+            factLoaded = true;
+            super.setFact(fact);
+        }
+
+        @Override
+        public Node getLeft() {
+            if (!childrenLoaded) {
+                loadChildren();
+            }
+            return super.getLeft();
+        }
+
+        @Override
+        public void setLeft(Node left) {
+            if (!childrenLoaded) {
+                loadChildren();
+            }
+            super.setLeft(left);
+        }
+
+        @Override
+        public Node getRight() {
+            if (!childrenLoaded) {
+                loadChildren();
+            }
+            return super.getRight();
+        }
+
+        @Override
+        public void setRight(Node right) {
+            if (!childrenLoaded) {
+                loadChildren();
+            }
+            super.setRight(right);
+        }
+
+        private synchronized void loadFact() {
+            if (!factLoaded) {
+                super.setFact(store.getFact(offset));
+                factLoaded = true;
+            }
+        }
+
+        private synchronized void loadChildren() {
+            if (!childrenLoaded) {
+                int left = store.getLeft(offset);
+                int right = store.getRight(offset);
+                super.setLeft(left == NO_NODE ? null : new MappedNode(store, left, this));
+                super.setRight(right == NO_NODE ? null : new MappedNode(store, right, this));
+                childrenLoaded = true;
+            }
+        }
+    }
+
+    /**
+     * A header slot, see the class comment.
+     */
+    private static final class Slot {
+        private final long sequence;
+        private final int end;
+        private final int root;
+        private final int statistics;
+        private final int written;
+
+        private Slot(long sequence, int end, int root, int statistics, int written) {
+            this.sequence = sequence;
+            this.end = end;
+            this.root = root;
+            this.statistics = statistics;
+            this.written = written;
+        }
+
+        /**
+         * Returns the valid slot with the higher sequence number, or null when neither is valid.
+         */
+        static Slot newest(FileChannel channel) throws IOException {
+            ByteBuffer slots = ByteBuffer.allocate(2 * SLOT_SIZE);
+            while (slots.hasRemaining()) {
+                if (channel.read(slots, SLOT + slots.position()) < 0) {
+                    return null;
+                }
+            }
+            Slot newest = null;
+            for (int i = 0; i < 2; i++) {
+                slots.clear().position(i * SLOT_SIZE).limit((i + 1) * SLOT_SIZE);
+                Slot slot = read(slots.slice());
+                if (slot != null && (newest == null || slot.sequence > newest.sequence)) {
+                    newest = slot;
+                }
+            }
+            return newest;
+        }
+
+        private static Slot read(ByteBuffer buffer) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().limit(SLOT_SIZE - Integer.BYTES));
+            Slot slot = new Slot(buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+            buffer.getInt(); // reserved
+            if (buffer.getInt() != (int) crc.getValue() || slot.sequence <= 0 || slot.end < DATA_START) {
+                return null;
+            }
+            return slot;
+        }
+
+        ByteBuffer toBuffer() {
+            ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+            buffer.putLong(sequence).putInt(end).putInt(root).putInt(statistics).putInt(written).putInt(0);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.position());
+            buffer.putInt((int) crc.getValue()).flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Writes records through a buffer from a position on, each at a multiple of 8.
+     */
+    private static final class Appender {
+        private final DataOutputStream out;
+        private final long start;
+        private final Map<String, Integer> prefixOffsets;
+
+        private Appender(FileChannel channel, int start, Map<String, Integer> prefixOffsets) throws IOException {
+            channel.position(start);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            this.start = start;
+            this.prefixOffsets = prefixOffsets;
+        }
+
+        int writeNode(int left, int right, long hits, String fact) throws IOException {
+            int prefixLength = FactStore.prefixLength(fact);
+            int prefix = prefixLength == 0 ? NO_NODE : writePrefix(fact.substring(0, prefixLength));
+            String rest = fact.substring(prefixLength);
+            boolean latin1 = FactStore.isLatin1(rest);
+            byte[] payload = FactStore.encode(rest, latin1);
+            int offset = position();
+            out.writeInt(left);
+            out.writeInt(right);
+            out.writeLong(hits);
+            out.writeInt(prefix);
+            out.writeInt(latin1 ? payload.length : payload.length | UTF_8);
+            out.write(payload);
+            pad();
+            return offset;
+        }
+
+        private int writePrefix(String prefix) throws IOException {
+            Integer known = prefixOffsets.get(prefix);
+            if (known != null) {
+                return known;
+            }
+            byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+            int offset = position();
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            pad();
+            prefixOffsets.put(prefix, offset);
+            return offset;
+        }
+
+        int writeStatistics(TreeStatistics statistics) throws IOException {
+            int offset = position();
+            statistics.write(out);
+            pad();
+            return offset;
+        }
+
+        /**
+         * Flushes the records and returns where they end.
+         */
+        int finish() throws IOException {
+            out.flush();
+            return position();
+        }
+
+        private int position() throws IOException {
+            // size() stops counting at Integer.MAX_VALUE
+            long position = start + out.size();
+            if (position >= Integer.MAX_VALUE - 8) {
+                throw new IOException("The tree is too large for an animal index file");
+            }
+            return (int) position;
+        }
+
+        private void pad() throws IOException {
+            while (position() % 8 != 0) {
+                out.writeByte(0);
+            }
+        }
+    }
+
+    private static final class WriteFrame {
+        private final Node node;
+        private final int depth;
+        private final boolean yes;
+        private int stage;
+        private int left = NO_NODE;
+        private int right = NO_NODE;
+
+        private WriteFrame(Node node, int depth, boolean yes) {
+            this.node = node;
+            this.depth = depth;
+            this.yes = yes;
+        }
+    }
+
+    /**
+     * Writes each node's record when it ends, after its children's, so the file is written front to back.
+     */
+    private static final class StreamWriter implements NodeSink {
+        private final FileChannel channel;
+        private final Appender out;
+        private final TreeStatistics counted = new TreeStatistics();
+        private final Deque<OpenNode> open = new ArrayDeque<>();
+        private int root = NO_NODE;
+
+        private StreamWriter(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            writeStart(channel);
+            this.out = new Appender(channel, DATA_START, new HashMap<>());
+        }
+
+        @Override
+        public void startNode(String fact, boolean yes) {
+            open.push(new OpenNode(fact, yes));
+        }
+
+        @Override
+        public void endNode(long hits) throws IOException {
+            OpenNode node = open.pop();
+            int offset = out.writeNode(node.left, node.right, hits, node.fact);
+            counted.count(node.left == NO_NODE && node.right == NO_NODE, open.size());
+            OpenNode parent = open.peek();
+            if (parent == null) {
+                root = offset;
+            } else if (node.yes) {
+                parent.right = offset;
+            } else {
+                parent.left = offset;
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            int statisticsOffset = out.writeStatistics(counted);
+            int end = out.finish();
+            commit(channel, new Slot(1, end, root, statisticsOffset, end));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class OpenNode {
+        private final String fact;
+        private final boolean yes;
+        private int left = NO_NODE;
+        private int right = NO_NODE;
+
+        private OpenNode(String fact, boolean yes) {
+            this.fact = fact;
+            this.yes = yes;
+        }
+    }
+}
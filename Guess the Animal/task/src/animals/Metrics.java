@@ -0,0 +1,372 @@
+package animals;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of counters, gauges and latency histograms that can be written in the Prometheus text format
+ * or read as the attributes of one JMX MBean.
+ * <p>
+ * A metric is identified by its name and labels, e.g. {@code animals_menu_seconds{operation="play"}};
+ * asking for the same one twice returns the same instance, so classes keep theirs in static fields.
+ * Updates only touch adders, so the hot paths never wait for an export.
+ */
+public final class Metrics {
+    private static final Metrics DEFAULT = new Metrics();
+    private static final double[] SECONDS = {0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 60};
+
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Starts the exports asked for with system properties: animals.metrics.file writes the Prometheus text
+     * to that file every animals.metrics.intervalSeconds (15 by default), animals.metrics.jmx registers the MBean.
+     */
+    public void startExports() {
+        String file = System.getProperty("animals.metrics.file");
+        if (file != null) {
+            startFileExport(Paths.get(file), Long.getLong("animals.metrics.intervalSeconds", 15));
+        }
+        if (Boolean.getBoolean("animals.metrics.jmx")) {
+            registerMBean();
+        }
+    }
+
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) metrics.computeIfAbsent(sortKey(name, labels), key -> new Counter(name, help, labels));
+    }
+
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) metrics.computeIfAbsent(sortKey(name, labels), key -> new Histogram(name, help, labels));
+    }
+
+    /**
+     * Registers a value that is read at export time; a gauge registered again replaces the old one.
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        metrics.put(sortKey(name, labels), new Gauge(name, help, labels, value));
+    }
+
+    /**
+     * Keeps the metrics of one name together and ahead of longer names starting with it.
+     */
+    private static String sortKey(String name, String[] labels) {
+        return name + '\0' + key(name, labels);
+    }
+
+    private static String key(String name, String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels come in name/value pairs: " + String.join(", ", labels));
+        }
+        if (labels.length == 0) {
+            return name;
+        }
+        StringBuilder key = new StringBuilder(name).append('{');
+        for (int i = 0; i < labels.length; i += 2) {
+            key.append(i == 0 ? "" : ",").append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return key.append('}').toString();
+    }
+
+    public void writePrometheus(Writer out) throws IOException {
+        String family = null;
+        for (Metric metric : metrics.values()) {
+            if (!metric.name.equals(family)) {
+                family = metric.name;
+                out.write("# HELP " + metric.name + " " + metric.help + "\n");
+                out.write("# TYPE " + metric.name + " " + metric.type() + "\n");
+            }
+            metric.write(out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the Prometheus text to a temporary file and moves it over the target,
+     * so a scraper never reads half a file.
+     */
+    public void writePrometheus(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writePrometheus(out);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void startFileExport(Path file, long intervalSeconds) {
+        ScheduledExecutorService exporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        exporter.scheduleAtFixedRate(() -> {
+            try {
+                writePrometheus(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, 0, intervalSeconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                writePrometheus(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+    }
+
+    /**
+     * Registers the metrics as attributes of the MBean animals:type=Metrics;
+     * a histogram shows up as its count and its sum.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName("animals:type=Metrics"));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private abstract static class Metric {
+        private final String name;
+        private final String help;
+        private final String labels;
+
+        private Metric(String name, String help, String[] labels) {
+            this.name = name;
+            this.help = help;
+            String key = key(name, labels);
+            this.labels = key.substring(name.length());
+        }
+
+        String getId() {
+            return name + labels;
+        }
+
+        abstract String type();
+
+        abstract void write(Writer out) throws IOException;
+
+        void writeSample(Writer out, String suffix, String extraLabel, double value) throws IOException {
+            String sampleLabels = labels;
+            if (extraLabel != null) {
+                sampleLabels = labels.isEmpty() ? "{" + extraLabel + "}"
+                        : labels.substring(0, labels.length() - 1) + "," + extraLabel + "}";
+            }
+            out.write(name + suffix + sampleLabels + " " + format(value) + "\n");
+        }
+
+        private static String format(double value) {
+            if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+                return Long.toString((long) value);
+            }
+            return Double.toString(value);
+        }
+    }
+
+    public static final class Counter extends Metric {
+        private final LongAdder count = new LongAdder();
+
+        private Counter(String name, String help, String[] labels) {
+            super(name, help, labels);
+        }
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+
+        @Override
+        String type() {
+            return "counter";
+        }
+
+        @Override
+        void write(Writer out) throws IOException {
+            writeSample(out, "", null, get());
+        }
+    }
+
+    private static final class Gauge extends Metric {
+        private final DoubleSupplier value;
+
+        private Gauge(String name, String help, String[] labels, DoubleSupplier value) {
+            super(name, help, labels);
+            this.value = value;
+        }
+
+        @Override
+        String type() {
+            return "gauge";
+        }
+
+        @Override
+        void write(Writer out) throws IOException {
+            writeSample(out, "", null, value.getAsDouble());
+        }
+    }
+
+    /**
+     * Durations in seconds, counted in fixed buckets from half a millisecond to a minute.
+     */
+    public static final class Histogram extends Metric {
+        private final LongAdder[] buckets = new LongAdder[SECONDS.length + 1];
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram(String name, String help, String[] labels) {
+            super(name, help, labels);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records the time since the given {@link System#nanoTime()}.
+         */
+        public void observeSince(long startNanos) {
+            observe((System.nanoTime() - startNanos) / 1e9);
+        }
+
+        public void observe(double seconds) {
+            int bucket = 0;
+            while (bucket < SECONDS.length && seconds > SECONDS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            sum.add(seconds);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        public double getSum() {
+            return sum.sum();
+        }
+
+        @Override
+        String type() {
+            return "histogram";
+        }
+
+        @Override
+        void write(Writer out) throws IOException {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String bound = i < SECONDS.length ? Double.toString(SECONDS[i]) : "+Inf";
+                writeSample(out, "_bucket", "le=\"" + bound + "\"", cumulative);
+            }
+            writeSample(out, "_sum", null, getSum());
+            writeSample(out, "_count", null, cumulative);
+        }
+    }
+
+    private final class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            for (Metric metric : metrics.values()) {
+                if (metric instanceof Histogram) {
+                    if (attribute.equals(metric.getId() + "_count")) {
+                        return ((Histogram) metric).getCount();
+                    }
+                    if (attribute.equals(metric.getId() + "_sum")) {
+                        return ((Histogram) metric).getSum();
+                    }
+                } else if (attribute.equals(metric.getId())) {
+                    return metric instanceof Counter ? (Object) ((Counter) metric).get()
+                            : (Object) ((Gauge) metric).value.getAsDouble();
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // metrics are never removed, so an unknown name is simply left out
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Metric metric : metrics.values()) {
+                if (metric instanceof Histogram) {
+                    attributes.add(attribute(metric.getId() + "_count", "long", metric.help + " (count)"));
+                    attributes.add(attribute(metric.getId() + "_sum", "double", metric.help + " (sum of seconds)"));
+                } else {
+                    attributes.add(attribute(metric.getId(), metric instanceof Counter ? "long" : "double", metric.help));
+                }
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Guess the Animal metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        private MBeanAttributeInfo attribute(String name, String type, String description) {
+            return new MBeanAttributeInfo(name, type, description, true, false, false);
+        }
+    }
+}
@@ -5,29 +5,67 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.ObjectIdGenerators;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 @JsonInclude(JsonInclude.Include.NON_NULL)
 @JsonIdentityInfo(generator = ObjectIdGenerators.IntSequenceGenerator.class, property = "id")
 public class Node {
-    private String fact;
-    private Node left;
-    private Node right;
-    private Node parent;
+    private static final AtomicLongFieldUpdater<Node> HITS = AtomicLongFieldUpdater.newUpdater(Node.class, "hits");
+    private static final AtomicReferenceFieldUpdater<Node, Object> FACT =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "fact");
+    static final int NOT_STORED = -1;
+
+    // the fact as its interned prefix and the rest in UTF-8 (see FactStore) until it is first read,
+    // from then on the whole fact as a String, so only the facts in use take the room of a String
+    private volatile String prefix;
+    private volatile Object fact;
+    private volatile Node left;
+    private volatile Node right;
+    private volatile Node parent;
+    private volatile long hits;
+    // the question for the fact, rendered when a game first asks it; not written to the file
+    private volatile String question;
+    // offset of the node's record in the idx file, until the node changes, see MappedTreeStore
+    private volatile int stored = NOT_STORED;
 
     public Node() {
     }
 
 
     public Node(String fact, Node parent) {
-        this.fact = fact;
+        storeFact(fact);
         this.parent = parent;
     }
 
+    /**
+     * Returns the fact, decoded from the prefix and the payload on the first call.
+     */
     public String getFact() {
-        return fact;
+        Object value = fact;
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        String decoded = prefix.concat(FactStore.decode((byte[]) value));
+        // unless the fact was set meanwhile
+        FACT.compareAndSet(this, value, decoded);
+        return decoded;
     }
 
     public void setFact(String fact) {
-        this.fact = fact;
+        storeFact(fact);
+        this.question = null;
+    }
+
+    private void storeFact(String fact) {
+        if (fact == null) {
+            this.fact = null;
+            this.prefix = null;
+            return;
+        }
+        int prefixLength = FactStore.prefixLength(fact);
+        this.prefix = FactStore.internPrefix(fact.substring(0, prefixLength));
+        this.fact = FactStore.encode(fact.substring(prefixLength));
     }
 
     public Node getLeft() {
@@ -53,4 +91,52 @@ public class Node {
     public void setParent(Node parent) {
         this.parent = parent;
     }
+
+    /**
+     * Number of games that ended at this animal, or that passed this statement;
+     * the hits of a statement's children tell how often each answer was given.
+     */
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public long getHits() {
+        return hits;
+    }
+
+    public void setHits(long hits) {
+        this.hits = hits;
+        this.stored = NOT_STORED;
+    }
+
+    /**
+     * The question a game asks for this node, or null until one has asked it, see {@link Tree#getQuestion(Node)}.
+     */
+    @JsonIgnore
+    public String getQuestion() {
+        return question;
+    }
+
+    @JsonIgnore
+    public void setQuestion(String question) {
+        this.question = question;
+    }
+
+    /**
+     * Adds games to the hits and returns the new hits.
+     */
+    public long hit(long games) {
+        long result = HITS.addAndGet(this, games);
+        stored = NOT_STORED;
+        return result;
+    }
+
+    /**
+     * Where the record of this node and its subtree is in the idx file it was read from or last saved to,
+     * or {@link #NOT_STORED} when the node is new or its hits changed since.
+     */
+    int getStored() {
+        return stored;
+    }
+
+    void setStored(int stored) {
+        this.stored = stored;
+    }
 }
@@ -0,0 +1,24 @@
+package animals;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives a tree one node at a time, so it can be copied from one file format to another without
+ * building its nodes. A node is started before its children and ended after them, with its hits,
+ * which the Jackson formats only have after the children.
+ */
+public interface NodeSink extends Closeable {
+
+    /**
+     * Starts a node; yes tells which answer leads to it from its parent and is ignored for the root.
+     */
+    void startNode(String fact, boolean yes) throws IOException;
+
+    void endNode(long hits) throws IOException;
+
+    /**
+     * Completes the file once the root has ended. Closing without finishing leaves an incomplete file.
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,90 @@
+package animals;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-size records that can be written at any index, mapped from the file in chunks.
+ * A streamed tree fills in parts of a node's record only after its children, and this keeps
+ * those records in the page cache instead of on the heap.
+ */
+final class RecordFile implements Closeable {
+    private static final int CHUNK_BITS = 18;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final FileChannel channel;
+    private final long start;
+    private final int recordSize;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+    /**
+     * Maps records of the given size starting at the given position; the file is created when needed.
+     */
+    RecordFile(Path file, long start, int recordSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.start = start;
+        this.recordSize = recordSize;
+    }
+
+    void putByte(long index, int field, byte value) throws IOException {
+        chunk(index).put(offset(index, field), value);
+    }
+
+    void putInt(long index, int field, int value) throws IOException {
+        chunk(index).putInt(offset(index, field), value);
+    }
+
+    void putLong(long index, int field, long value) throws IOException {
+        chunk(index).putLong(offset(index, field), value);
+    }
+
+    byte getByte(long index, int field) throws IOException {
+        return chunk(index).get(offset(index, field));
+    }
+
+    int getInt(long index, int field) throws IOException {
+        return chunk(index).getInt(offset(index, field));
+    }
+
+    long getLong(long index, int field) throws IOException {
+        return chunk(index).getLong(offset(index, field));
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    private int offset(long index, int field) {
+        return (int) (index & CHUNK_MASK) * recordSize + field;
+    }
+
+    private MappedByteBuffer chunk(long index) throws IOException {
+        int chunk = (int) (index >>> CHUNK_BITS);
+        while (chunks.size() <= chunk) {
+            long chunkSize = (long) recordSize << CHUNK_BITS;
+            chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, start + chunks.size() * chunkSize, chunkSize));
+        }
+        return chunks.get(chunk);
+    }
+
+    /**
+     * Cuts the file after the given number of records, which the mapping grew in whole chunks.
+     */
+    void truncate(long records) throws IOException {
+        chunks.clear();
+        channel.truncate(start + records * recordSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunks.clear();
+        channel.close();
+    }
+}
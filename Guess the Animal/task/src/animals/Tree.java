@@ -1,160 +1,507 @@
 package animals;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * The knowledge tree, kept as a persistent (path-copying) structure.
+ * <p>
+ * The facts and children of a published node never change. Learning an animal copies the path from the root
+ * to the split leaf and publishes the new root with a single volatile write, so a reader that took
+ * {@link #getRoot()} keeps walking a consistent version without any lock.
+ * Nodes off the copied path are shared between versions, and they are the one thing a split does change:
+ * once the new path is complete, their parent links are rewritten to point to it. The new path has the same
+ * facts and answers on the way up, so walking up from any version gives the same result, and old versions
+ * don't stay reachable through the shared nodes.
+ * Writers are serialized on the tree.
+ */
 public class Tree {
-    private Node root;
+    private static final boolean CHECK_STATISTICS = Boolean.getBoolean("animals.checkStatistics");
+    private static final int PATH_CACHE_SIZE = Integer.getInteger("animals.pathCache.size", 4096);
 
-    public Tree() {
+    private final LanguageRules rules;
+    private volatile Node root;
+    private volatile long version;
+    private volatile Map<String, Node> animals;
+    private volatile NavigableSet<String> names;
+    private volatile TreeStatistics statistics;
+    // leaves found by their answers, see findByPath
+    private final Map<String, Node> leavesByPath = new ConcurrentHashMap<>();
+    private final List<TreeListener> listeners = new CopyOnWriteArrayList<>();
+
+    public Tree(LanguageRules rules) {
+        this.rules = rules;
+    }
+
+    public void addListener(TreeListener listener) {
+        listeners.add(listener);
     }
 
     public Node getRoot() {
         return root;
     }
 
-    public void setRoot(Node root) {
+    public long getVersion() {
+        return version;
+    }
+
+    public synchronized void setRoot(Node root) {
         this.root = root;
+        this.version++;
+        this.animals = null;
+        this.names = null;
+        this.statistics = null;
+        this.leavesByPath.clear();
     }
 
-    public List<String> getAllLeaves() {
-        List<String> leaves = new ArrayList<>();
-        findLeaf(root, leaves);
-        Collections.sort(leaves);
-        return leaves;
+    /**
+     * Publishes a tree whose statistics are already known, kept in its file, so they aren't counted again.
+     */
+    public synchronized void setRoot(Node root, TreeStatistics statistics) {
+        setRoot(root);
+        this.statistics = statistics;
     }
 
-    private void findLeaf(Node node, List<String> list) {
-        if (node == null) {
-            return;
+    public TreeStatistics getStatistics() {
+        TreeStatistics current = statistics;
+        if (current == null) {
+            synchronized (this) {
+                if (statistics == null) {
+                    statistics = TreeStatistics.of(root);
+                }
+                return statistics;
+            }
         }
-        if (node.getRight() == null && node.getLeft() == null) {
-            list.add(node.getFact());
+        if (CHECK_STATISTICS) {
+            synchronized (this) {
+                current.check(root);
+            }
         }
-        if (node.getRight() != null) {
-            findLeaf(node.getRight(), list);
+        return current;
+    }
+
+    /**
+     * Publishes a new version of the tree where a new statement takes the place of the leaf,
+     * with the new animal and the old one as its children, and returns the statement.
+     * The leaf may come from an older version, e.g. when two players reach the same leaf;
+     * the split is then applied where that animal is now, below the other player's statement.
+     */
+    public synchronized Node splitLeaf(Node leaf, String fact, String animal, boolean isTrueForAnimal) {
+        leaf = findCurrent(leaf);
+        for (TreeListener listener : listeners) {
+            listener.beforeSplit(leaf, fact, animal, isTrueForAnimal);
         }
-        if (node.getLeft() != null) {
-            findLeaf(node.getLeft(), list);
+        if (statistics != null) {
+            statistics.onSplit(getDepth(leaf));
         }
+
+        Node statement = new Node(fact, null);
+        statement.setHits(leaf.getHits());
+        Node newAnimal = new Node(rules.toLeafFact(animal), statement);
+        Node oldAnimal = new Node(leaf.getFact(), statement);
+        oldAnimal.setHits(leaf.getHits());
+        oldAnimal.setQuestion(leaf.getQuestion());
+        if (isTrueForAnimal) {
+            statement.setRight(newAnimal);
+            statement.setLeft(oldAnimal);
+        } else {
+            statement.setLeft(newAnimal);
+            statement.setRight(oldAnimal);
+        }
+
+        String path = getPath(leaf);
+        List<Node> nodes = new ArrayList<>(path.length());
+        Node node = root;
+        for (int i = 0; i < path.length(); i++) {
+            nodes.add(node);
+            node = path.charAt(i) == 'y' ? node.getRight() : node.getLeft();
+        }
+        Node replacement = statement;
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node copy = new Node(nodes.get(i).getFact(), null);
+            copy.setHits(nodes.get(i).getHits());
+            copy.setQuestion(nodes.get(i).getQuestion());
+            copy.setLeft(nodes.get(i).getLeft());
+            copy.setRight(nodes.get(i).getRight());
+            if (path.charAt(i) == 'y') {
+                copy.setRight(replacement);
+            } else {
+                copy.setLeft(replacement);
+            }
+            replacement.setParent(copy);
+            replacement = copy;
+        }
+        Node copy = replacement;
+        for (int i = 0; i < path.length(); i++) {
+            Node shared = path.charAt(i) == 'y' ? copy.getLeft() : copy.getRight();
+            if (shared != null) {
+                shared.setParent(copy);
+            }
+            copy = path.charAt(i) == 'y' ? copy.getRight() : copy.getLeft();
+        }
+
+        leavesByPath.remove(path);
+        if (animals != null) {
+            animals.put(animalKey(oldAnimal.getFact()), oldAnimal);
+            animals.put(animalKey(newAnimal.getFact()), newAnimal);
+        }
+        if (names != null) {
+            names.add(rules.getBareName(newAnimal.getFact()));
+        }
+        root = replacement;
+        version++;
+
+        if (statistics != null && CHECK_STATISTICS) {
+            statistics.check(root);
+        }
+        for (TreeListener listener : listeners) {
+            listener.afterSplit(statement);
+        }
+        return statement;
     }
 
-    public List<String> getAllAnimalFacts(String animal, ResourceBundle patternRes) {
-        Node node = findNode(root, null, animal);
-        List<String> facts = new ArrayList<>();
-        if (node != null) {
-            traversUp(node, facts, patternRes);
+    /**
+     * Returns the question for the node, rendered from its fact the first time and then kept on the node.
+     * A node's fact never changes once it is in the tree, so the question stays valid; a split replaces
+     * the leaf with new nodes, and the copies of the path and of the old animal take the questions along.
+     */
+    public String getQuestion(Node node) {
+        String question = node.getQuestion();
+        if (question == null) {
+            question = rules.askQuestion(node.getFact());
+            node.setQuestion(question);
         }
-        Collections.reverse(facts);
-        return facts;
+        return question;
     }
 
+    /**
+     * Counts a game that ended at the leaf on every node from the root down to it.
+     * The leaf may come from an older version; the game is then counted along the same answers
+     * in the current one. A game counted while a split copies the path may be lost.
+     * Returns the games of the node the count ended at, this one included.
+     */
+    public long countGame(Node leaf) {
+        return countGames(leaf, 1);
+    }
 
-    private void traversUp(Node node, List<String> facts, ResourceBundle patternRes) {//todo
-        Node parent = node.getParent();
-        if (parent != null) {
-            if(node == parent.getRight()){
-                facts.add(parent.getFact());
-            }else {
-                facts.add(makeNegative(parent.getFact(), patternRes));
+    /**
+     * Counts the given number of games like {@link #countGame(Node)}.
+     * The nodes are counted from the end of the path up, so a save writing the path meanwhile that
+     * sees a statement changed also sees the change below it, see {@link MappedTreeStore}.
+     */
+    public long countGames(Node leaf, long games) {
+        String path = getPath(leaf);
+        List<Node> nodes = new ArrayList<>(path.length() + 1);
+        Node node = root;
+        nodes.add(node);
+        for (int i = 0; i < path.length() && !isALeaf(node); i++) {
+            node = path.charAt(i) == 'y' ? node.getRight() : node.getLeft();
+            nodes.add(node);
+        }
+        long hits = node.hit(games);
+        for (int i = nodes.size() - 2; i >= 0; i--) {
+            nodes.get(i).hit(games);
+        }
+        return hits;
+    }
+
+    /**
+     * Returns up to limit animals with the most games, the most played first.
+     */
+    public List<Node> getHottestAnimals(int limit) {
+        Comparator<Node> byHits = Comparator.comparingLong(Node::getHits);
+        PriorityQueue<Node> hottest = new PriorityQueue<>(byHits);
+        for (Node leaf : TreeTraversal.leaves(root)) {
+            if (leaf.getHits() > 0 && (hottest.size() < limit || leaf.getHits() > hottest.peek().getHits())) {
+                hottest.add(leaf);
+                if (hottest.size() > limit) {
+                    hottest.poll();
+                }
             }
+        }
+        List<Node> sorted = new ArrayList<>(hottest);
+        sorted.sort(byHits.reversed());
+        return sorted;
+    }
 
-            traversUp(parent, facts, patternRes);
+    /**
+     * Returns the animal at the end of the path most games took, always following the answer
+     * with more hits.
+     */
+    public Node getHottestPathEnd() {
+        Node node = root;
+        while (!isALeaf(node)) {
+            node = TreeTraversal.isNoFirst(node) || node.getRight() == null ? node.getLeft() : node.getRight();
         }
+        return node;
     }
 
-    private String makeNegative(String statement, ResourceBundle patternRes){
-        Pattern pattern = Pattern.compile(patternRes.getString("negative.1.pattern"));
-        Matcher matcher = pattern.matcher(statement);
-        if(matcher.find()){
-            return matcher.replaceAll(patternRes.getString("negative.1.replace"));
-        }else {
-            pattern = Pattern.compile(patternRes.getString("negative.2.pattern"));
-            matcher = pattern.matcher(statement);
-            if(matcher.find()){
-                return matcher.replaceAll(patternRes.getString("negative.2.replace"));
-            }else {
-                pattern = Pattern.compile(patternRes.getString("negative.3.pattern"));
-                matcher = pattern.matcher(statement);
-                if(matcher.find()){
-                    return matcher.replaceAll(patternRes.getString("negative.3.replace"));
+    /**
+     * Finds the animal of a leaf from any version in the current version of the tree.
+     */
+    private Node findCurrent(Node leaf) {
+        Node node = findByPath(getPath(leaf));
+        if (node != null) {
+            for (Node candidate : TreeTraversal.leaves(node)) {
+                if (candidate.getFact().equals(leaf.getFact())) {
+                    return candidate;
                 }
             }
         }
-        return "";
+        Node indexed = findAnimal(rules.getAnimalName(leaf.getFact()));
+        if (indexed == null) {
+            throw new IllegalArgumentException("No longer in the tree: " + leaf.getFact());
+        }
+        return indexed;
     }
 
-    public int getNumberOfNodes() {
-        return getNodes(root, 0);
+    private int getDepth(Node node) {
+        int depth = 0;
+        for (Node ignored : TreeTraversal.ancestors(node)) {
+            depth++;
+        }
+        return depth;
     }
 
-    private int getNodes(Node node, int i) {
-        if (node != null) {
-            i++;
-            i = getNodes(node.getRight(), i);
-            i = getNodes(node.getLeft(), i);
+    /**
+     * Returns the answers leading from the root to the node, 'y' for yes and 'n' for no.
+     */
+    public static String getPath(Node node) {
+        StringBuilder path = new StringBuilder();
+        for (Node parent : TreeTraversal.ancestors(node)) {
+            path.append(node == parent.getRight() ? 'y' : 'n');
+            node = parent;
         }
-        return i;
+        return path.reverse().toString();
     }
 
-    private Node findNode(Node node, Node toReturn, String animal) {
+    /**
+     * Returns a private copy of the version starting at the given root, for writing it out while
+     * the tree keeps changing: the copy has its own parent links, which later splits don't move,
+     * and the game counts it had when it was copied.
+     */
+    public static Node copy(Node root) {
+        if (root == null) {
+            return null;
+        }
+        Node copy = new Node(root.getFact(), null);
+        copy.setHits(root.getHits());
+        Deque<Node[]> stack = new ArrayDeque<>();
+        stack.push(new Node[]{root, copy});
+        while (!stack.isEmpty()) {
+            Node[] pair = stack.pop();
+            Node left = pair[0].getLeft();
+            Node right = pair[0].getRight();
+            if (left != null) {
+                Node leftCopy = new Node(left.getFact(), pair[1]);
+                leftCopy.setHits(left.getHits());
+                pair[1].setLeft(leftCopy);
+                stack.push(new Node[]{left, leftCopy});
+            }
+            if (right != null) {
+                Node rightCopy = new Node(right.getFact(), pair[1]);
+                rightCopy.setHits(right.getHits());
+                pair[1].setRight(rightCopy);
+                stack.push(new Node[]{right, rightCopy});
+            }
+        }
+        return copy;
+    }
 
-        if (node.getFact().contains(animal)) {
-            toReturn = node;
-            return toReturn;
+    /**
+     * Follows the answers from the root, or returns null when they lead out of the tree.
+     * <p>
+     * The journal replay and the batch import look up the leaves of recorded games, often the same ones,
+     * so up to animals.pathCache.size leaves are remembered by their answers. A split only replaces the
+     * split leaf and the statements above it, so it forgets just that leaf; a new root forgets them all.
+     */
+    public Node findByPath(String path) {
+        Node leaf = leavesByPath.get(path);
+        if (leaf != null) {
+            return leaf;
         }
-        if (node.getLeft() != null) {
-            toReturn = findNode(node.getLeft(), toReturn, animal);
+        long seen = version;
+        Node node = root;
+        for (int i = 0; i < path.length() && node != null; i++) {
+            node = path.charAt(i) == 'y' ? node.getRight() : node.getLeft();
         }
-        if (node.getRight() != null) {
-            toReturn = findNode(node.getRight(), toReturn, animal);
+        if (node != null && isALeaf(node) && leavesByPath.size() < PATH_CACHE_SIZE) {
+            rememberLeaf(path, node, seen);
         }
-        return toReturn;
+        return node;
     }
 
-    public List<Integer> getDepths() {
-        List<Integer> depths = new ArrayList<>();
-        getDepths(root, 0, depths);
-        return depths;
+    /**
+     * Keeps the leaf unless the tree changed since it was found.
+     */
+    private synchronized void rememberLeaf(String path, Node leaf, long seen) {
+        if (version == seen) {
+            leavesByPath.put(path, leaf);
+        }
     }
 
-    private int getDepths(Node node, int depth, List<Integer> depths) {
-        if (node.getLeft() == null && node.getRight() == null) {
-            depths.add(depth);
-        }else {
-            depth++;
-            if (node.getRight() != null) {
-                getDepths(node.getRight(), depth, depths);
+    public Node findAnimal(String animal) {
+        return getAnimalIndex().get(nameKey(rules, animal));
+    }
+
+    private Map<String, Node> getAnimalIndex() {
+        Map<String, Node> index = animals;
+        if (index == null) {
+            synchronized (this) {
+                if (animals == null) {
+                    Map<String, Node> leaves = new ConcurrentHashMap<>();
+                    for (Node leaf : TreeTraversal.leaves(root)) {
+                        leaves.put(animalKey(leaf.getFact()), leaf);
+                    }
+                    animals = leaves;
+                }
+                index = animals;
             }
-            if (node.getRight() != null) {
-                getDepths(node.getLeft(), depth, depths);
+        }
+        return index;
+    }
+
+    private String animalKey(String fact) {
+        return animalKey(rules, fact);
+    }
+
+    /**
+     * The key {@link #findAnimal} looks animals up by: the name in lower case without its article,
+     * so "a cat" and "the Cat" are the same animal.
+     */
+    static String animalKey(LanguageRules rules, String fact) {
+        return nameKey(rules, rules.getAnimalName(fact));
+    }
+
+    private static String nameKey(LanguageRules rules, String animal) {
+        return rules.stripArticle(normalize(animal));
+    }
+
+    private static String normalize(String animal) {
+        return String.join(" ", animal.trim().toLowerCase(Locale.ROOT).split("\\s+"));
+    }
+
+    /**
+     * Names of all animals without their articles, in alphabetical order.
+     * The set is built on first use and kept up to date as animals are learned,
+     * so it can be walked without collecting and sorting the leaves.
+     */
+    public NavigableSet<String> getAnimalNames() {
+        NavigableSet<String> index = names;
+        if (index == null) {
+            synchronized (this) {
+                if (names == null) {
+                    NavigableSet<String> sorted = new ConcurrentSkipListSet<>();
+                    for (Node leaf : TreeTraversal.leaves(root)) {
+                        sorted.add(rules.getBareName(leaf.getFact()));
+                    }
+                    names = sorted;
+                }
+                index = names;
             }
-            return depth;
         }
-        return depth;
+        return Collections.unmodifiableNavigableSet(index);
     }
 
-    public List<String> getStatements() {
+    /**
+     * Returns up to limit names starting with the prefix, beginning after the given name,
+     * or with the first match when after is null.
+     */
+    public List<String> getAnimalNames(String prefix, String after, int limit) {
+        NavigableSet<String> index = getAnimalNames();
+        NavigableSet<String> tail = after == null ? index.tailSet(prefix, true) : index.tailSet(after, false);
+        List<String> page = new ArrayList<>(Math.min(limit, 64));
+        for (String name : tail) {
+            if (page.size() == limit || !name.startsWith(prefix)) {
+                break;
+            }
+            page.add(name);
+        }
+        return page;
+    }
+
+    public List<String> getAllLeaves() {
+        List<String> leaves = new ArrayList<>();
+        for (Node leaf : TreeTraversal.leaves(root)) {
+            leaves.add(leaf.getFact());
+        }
+        Collections.sort(leaves);
+        return leaves;
+    }
+
+    public List<String> getAllAnimalFacts(String animal) {
+        Node node = findAnimal(animal);
+        return node == null ? new ArrayList<>() : getFacts(node);
+    }
+
+    /**
+     * Returns the facts on the way from the root to the node, negated where the answer was "no".
+     */
+    public List<String> getFacts(Node node) {
         List<String> facts = new ArrayList<>();
-        return findStatement(root, facts);
+        traversUp(node, facts);
+        Collections.reverse(facts);
+        return facts;
     }
 
-    private List<String> findStatement(Node node, List<String> facts) {
-        if (node.getRight() != null || node.getLeft() != null) {
-            facts.add(node.getFact());
+    /**
+     * Returns the answers given on the way from the root to the node by statement;
+     * when a statement was taught twice on the way, the nearest answer wins.
+     */
+    public Map<String, Boolean> getAnswers(Node node) {
+        Map<String, Boolean> answers = new HashMap<>();
+        for (Node parent : TreeTraversal.ancestors(node)) {
+            answers.putIfAbsent(parent.getFact(), node == parent.getRight());
+            node = parent;
         }
-        if (node.getRight() != null) {
-            findStatement(node.getRight(), facts);
+        return answers;
+    }
+
+
+    private void traversUp(Node node, List<String> facts) {
+        for (Node parent : TreeTraversal.ancestors(node)) {
+            if(node == parent.getRight()){
+                facts.add(parent.getFact());
+            }else {
+                facts.add(rules.makeNegative(parent.getFact()));
+            }
+            node = parent;
         }
-        if (node.getLeft() != null) {
-            findStatement(node.getLeft(), facts);
+    }
+
+    public int getNumberOfNodes() {
+        int nodes = 0;
+        for (Node ignored : TreeTraversal.preOrder(root)) {
+            nodes++;
+        }
+        return nodes;
+    }
+
+    public List<Integer> getDepths() {
+        List<Integer> depths = new ArrayList<>();
+        TreeTraversal.PreOrderIterator iterator = new TreeTraversal.PreOrderIterator(root);
+        while (iterator.hasNext()) {
+            if (isALeaf(iterator.next())) {
+                depths.add(iterator.getDepth());
+            }
+        }
+        return depths;
+    }
+
+    public List<String> getStatements() {
+        List<String> facts = new ArrayList<>();
+        for (Node node : TreeTraversal.preOrder(root)) {
+            if (!isALeaf(node)) {
+                facts.add(node.getFact());
+            }
         }
         return facts;
     }
 
 
     boolean isALeaf(Node node){
-        return node.getLeft()==null&&node.getRight()==null;
+        return TreeTraversal.isALeaf(node);
     }
 }
@@ -0,0 +1,237 @@
+package animals;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Whole-tree report computed in one parallel pass over a {@link ForkJoinPool}:
+ * node counts, the depth histogram of the animals, how often each statement verb is used
+ * and the animals that appear on more than one leaf.
+ * <p>
+ * Every task walks its subtree with an explicit stack and hands one child of a statement to
+ * another task only when both children are statements and the pool is running out of queued work,
+ * so a degenerate tree is walked by one task instead of overflowing the stack with nested joins.
+ */
+public class TreeAnalytics {
+    private static final int SURPLUS_TASKS = 3;
+
+    private int nodes;
+    private int animals;
+    private int statements;
+    private long depthSum;
+    private int[] animalsAtDepth = new int[16];
+    private int height;
+    private final Map<String, Integer> verbs = new HashMap<>();
+    // leaves per animal, by the key TreeDeduplicator groups them by
+    private final Map<String, Integer> leavesByAnimal = new HashMap<>();
+    private final LanguageRules rules;
+
+    private TreeAnalytics(LanguageRules rules) {
+        this.rules = rules;
+    }
+
+    public static TreeAnalytics of(Node root, LanguageRules rules) {
+        return of(root, rules, ForkJoinPool.commonPool());
+    }
+
+    public static TreeAnalytics of(Node root, LanguageRules rules, ForkJoinPool pool) {
+        if (root == null) {
+            return new TreeAnalytics(rules);
+        }
+        return pool.invoke(new AnalysisTask(root, 0, rules));
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    public int getAnimals() {
+        return animals;
+    }
+
+    public int getStatements() {
+        return statements;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getAverageDepth() {
+        return animals == 0 ? 0 : (double) depthSum / animals;
+    }
+
+    /**
+     * Number of animals at each depth, index 0 being the root.
+     */
+    public int[] getDepthHistogram() {
+        return Arrays.copyOf(animalsAtDepth, animals == 0 ? 0 : height + 1);
+    }
+
+    /**
+     * Verbs of the statements (the word after the subject, e.g. "can" in "it can fly"),
+     * most frequent first.
+     */
+    public List<Map.Entry<String, Integer>> getVerbs(int limit) {
+        List<Map.Entry<String, Integer>> sorted = new ArrayList<>(verbs.entrySet());
+        sorted.sort(Map.Entry.<String, Integer>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    /**
+     * Animals found on more than one leaf, with the number of leaves. Like {@link TreeDeduplicator},
+     * leaves count as the same animal when {@link Tree#findAnimal} finds them by the same name,
+     * which is given in lower case without its article.
+     */
+    public Map<String, Integer> getDuplicates() {
+        Map<String, Integer> duplicates = new TreeMap<>();
+        leavesByAnimal.forEach((animal, count) -> {
+            if (count > 1) {
+                duplicates.put(animal, count);
+            }
+        });
+        return duplicates;
+    }
+
+    public void print(PrintStream out) {
+        out.println("nodes            " + nodes);
+        out.println("animals          " + animals);
+        out.println("statements       " + statements);
+        out.println("height           " + height);
+        out.printf("average depth    %.1f%n", getAverageDepth());
+        out.println("animals by depth " + Arrays.toString(getDepthHistogram()));
+        out.println("top verbs        " + getVerbs(10));
+        out.println("duplicates       " + getDuplicates());
+    }
+
+    /**
+     * Analyzes the tree with 1, 2, 4... up to the given number of threads and prints
+     * the best of three runs for each, after a few warm-up runs, with the speedup over a single thread.
+     */
+    public static void printSpeedup(Node root, LanguageRules rules, int maxThreads, PrintStream out) {
+        for (int run = 0; run < 5; run++) {
+            of(root, rules);
+        }
+        long singleThread = 0;
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                of(root, rules, pool);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            if (threads == 1) {
+                singleThread = best;
+            }
+            out.printf("%3d threads %10.1f ms  speedup %.2f%n", threads, best / 1e6, (double) singleThread / best);
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+    }
+
+    private void addStatement(String fact) {
+        nodes++;
+        statements++;
+        int start = fact.indexOf(' ') + 1;
+        int end = fact.indexOf(' ', start);
+        if (start > 0 && end > start) {
+            verbs.merge(fact.substring(start, end), 1, Integer::sum);
+        }
+    }
+
+    private void addAnimal(String fact, int depth) {
+        nodes++;
+        animals++;
+        depthSum += depth;
+        height = Math.max(height, depth);
+        if (depth >= animalsAtDepth.length) {
+            animalsAtDepth = Arrays.copyOf(animalsAtDepth, Math.max(depth + 1, animalsAtDepth.length * 2));
+        }
+        animalsAtDepth[depth]++;
+        leavesByAnimal.merge(Tree.animalKey(rules, fact), 1, Integer::sum);
+    }
+
+    private void merge(TreeAnalytics other) {
+        nodes += other.nodes;
+        animals += other.animals;
+        statements += other.statements;
+        depthSum += other.depthSum;
+        height = Math.max(height, other.height);
+        if (other.animalsAtDepth.length > animalsAtDepth.length) {
+            animalsAtDepth = Arrays.copyOf(animalsAtDepth, other.animalsAtDepth.length);
+        }
+        for (int depth = 0; depth < other.animalsAtDepth.length; depth++) {
+            animalsAtDepth[depth] += other.animalsAtDepth[depth];
+        }
+        other.verbs.forEach((verb, count) -> verbs.merge(verb, count, Integer::sum));
+        other.leavesByAnimal.forEach((animal, count) -> leavesByAnimal.merge(animal, count, Integer::sum));
+    }
+
+    private static class AnalysisTask extends RecursiveTask<TreeAnalytics> {
+        private static final long serialVersionUID = 1L;
+
+        private final Node root;
+        private final int depth;
+        private final LanguageRules rules;
+
+        private AnalysisTask(Node root, int depth, LanguageRules rules) {
+            this.root = root;
+            this.depth = depth;
+            this.rules = rules;
+        }
+
+        @Override
+        protected TreeAnalytics compute() {
+            TreeAnalytics result = new TreeAnalytics(rules);
+            List<AnalysisTask> forked = new ArrayList<>();
+            Deque<Node> stack = new ArrayDeque<>();
+            int[] depths = new int[16];
+            stack.push(root);
+            depths[0] = depth;
+            while (!stack.isEmpty()) {
+                int nodeDepth = depths[stack.size() - 1];
+                Node node = stack.pop();
+                if (TreeTraversal.isALeaf(node)) {
+                    result.addAnimal(node.getFact(), nodeDepth);
+                    continue;
+                }
+                result.addStatement(node.getFact());
+                if (stack.size() + 2 > depths.length) {
+                    depths = Arrays.copyOf(depths, depths.length * 2);
+                }
+                Node left = node.getLeft();
+                Node right = node.getRight();
+                if (left != null && right != null && !TreeTraversal.isALeaf(left) && !TreeTraversal.isALeaf(right)
+                        && getSurplusQueuedTaskCount() < SURPLUS_TASKS) {
+                    AnalysisTask task = new AnalysisTask(left, nodeDepth + 1, rules);
+                    task.fork();
+                    forked.add(task);
+                } else if (left != null) {
+                    depths[stack.size()] = nodeDepth + 1;
+                    stack.push(left);
+                }
+                if (right != null) {
+                    depths[stack.size()] = nodeDepth + 1;
+                    stack.push(right);
+                }
+            }
+            for (AnalysisTask task : forked) {
+                result.merge(task.join());
+            }
+            return result;
+        }
+    }
+}
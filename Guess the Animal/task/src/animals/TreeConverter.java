@@ -0,0 +1,85 @@
+package animals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * Copies a tree file into another format node by node, without building the tree:
+ * <pre>
+ * java animals.Main convert --from xml --to bin [--in animals.xml] [--out animals.bin] [-language eo]
+ * </pre>
+ * The files default to the ones the game uses for the language. The target is written to a temporary
+ * file first and moved over the old one when complete; its generations are left alone.
+ */
+public final class TreeConverter {
+
+    private TreeConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String from = null;
+        String to = null;
+        String in = null;
+        String out = null;
+        String language = Locale.getDefault().getLanguage();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--from":
+                    from = args[i + 1];
+                    break;
+                case "--to":
+                    to = args[i + 1];
+                    break;
+                case "--in":
+                    in = args[i + 1];
+                    break;
+                case "--out":
+                    out = args[i + 1];
+                    break;
+                case "-language":
+                    language = args[i + 1];
+                    break;
+                default:
+            }
+        }
+        if (from == null || to == null) {
+            System.out.println("Usage: convert --from json|xml|yaml|bin|idx --to json|xml|yaml|bin|idx"
+                    + " [--in file] [--out file] [-language xx]");
+            return;
+        }
+        Database source = new Database(from, new Locale(language));
+        Database target = new Database(to, new Locale(language));
+        Path inFile = Paths.get(in == null ? source.getFilename() : in);
+        Path outFile = Paths.get(out == null ? target.getFilename() : out);
+        if (inFile.toAbsolutePath().equals(outFile.toAbsolutePath())) {
+            System.out.println("The tree can't be converted into the file it is read from");
+            return;
+        }
+        long start = System.nanoTime();
+        long nodes = convert(source, inFile, target, outFile);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d nodes from %s to %s in %.2f s (%.0f nodes/s)%n",
+                nodes, inFile, outFile, seconds, nodes / seconds);
+    }
+
+    /**
+     * Converts the file and returns the number of nodes.
+     */
+    public static long convert(Database source, Path in, Database target, Path out) throws IOException {
+        Path temp = out.resolveSibling(out.getFileName() + ".tmp");
+        long nodes;
+        try (NodeSink sink = target.newWriter(temp)) {
+            nodes = source.readInto(in, sink);
+            sink.finish();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return nodes;
+    }
+}
@@ -0,0 +1,227 @@
+package animals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Removes the extra leaves of animals that were taught more than once.
+ * <p>
+ * The leaves are grouped in one pass by the animal name {@link Tree#findAnimal} looks them up by,
+ * so "a cat" and "the Cat" are the same animal. Of every animal on more than one leaf, the leaf with
+ * the most games is kept (the shallowest one on a tie) and gets the games of the others; a statement left
+ * with a single child is replaced by that child. The answers of an animal's leaves are compared by
+ * statement, and the statements they answer both ways are reported as conflicts, since a player who
+ * thinks of that animal may take either way. The given tree isn't changed.
+ * <p>
+ * Fewer leaves are the only way to fewer questions: every statement on an animal's path is needed to tell
+ * it from the animals on the other side, and it has no answers for the others. The result therefore tells
+ * the average number of questions before and after, each animal weighted by its games plus one.
+ */
+public final class TreeDeduplicator {
+
+    private TreeDeduplicator() {
+    }
+
+    public static Result deduplicate(Node root, LanguageRules rules) {
+        Map<String, List<Node>> leavesByAnimal = new LinkedHashMap<>();
+        Map<Node, Integer> depths = new IdentityHashMap<>();
+        TreeTraversal.PreOrderIterator iterator = new TreeTraversal.PreOrderIterator(root);
+        while (iterator.hasNext()) {
+            Node node = iterator.next();
+            if (TreeTraversal.isALeaf(node)) {
+                leavesByAnimal.computeIfAbsent(Tree.animalKey(rules, node.getFact()), key -> new ArrayList<>())
+                        .add(node);
+                depths.put(node, iterator.getDepth());
+            }
+        }
+        double before = averageDepth(depths);
+
+        List<Duplicate> duplicates = new ArrayList<>();
+        Map<Node, Node> keptLeaves = new IdentityHashMap<>();
+        for (List<Node> leaves : leavesByAnimal.values()) {
+            if (leaves.size() == 1) {
+                continue;
+            }
+            Node kept = leaves.get(0);
+            for (Node leaf : leaves) {
+                if (leaf.getHits() > kept.getHits()
+                        || leaf.getHits() == kept.getHits() && depths.get(leaf) < depths.get(kept)) {
+                    kept = leaf;
+                }
+            }
+            for (Node leaf : leaves) {
+                keptLeaves.put(leaf, kept);
+            }
+            duplicates.add(new Duplicate(kept.getFact(), leaves.size(), findConflicts(leaves)));
+        }
+        if (duplicates.isEmpty()) {
+            return new Result(root, duplicates, 0, before, before);
+        }
+        Node copy = copyWithout(root, keptLeaves);
+        Map<Node, Integer> depthsAfter = new IdentityHashMap<>();
+        iterator = new TreeTraversal.PreOrderIterator(copy);
+        while (iterator.hasNext()) {
+            Node node = iterator.next();
+            if (TreeTraversal.isALeaf(node)) {
+                depthsAfter.put(node, iterator.getDepth());
+            }
+        }
+        return new Result(copy, duplicates, keptLeaves.size() - duplicates.size(), before, averageDepth(depthsAfter));
+    }
+
+    /**
+     * Returns the average depth of the leaves, each weighted by its games plus one.
+     */
+    private static double averageDepth(Map<Node, Integer> depths) {
+        double weightedDepth = 0;
+        double totalWeight = 0;
+        for (Map.Entry<Node, Integer> entry : depths.entrySet()) {
+            long weight = entry.getKey().getHits() + 1;
+            weightedDepth += (double) weight * entry.getValue();
+            totalWeight += weight;
+        }
+        return totalWeight == 0 ? 0 : weightedDepth / totalWeight;
+    }
+
+    /**
+     * Returns the statements that some leaves answer "yes" and others "no".
+     */
+    private static Set<String> findConflicts(List<Node> leaves) {
+        Map<String, Boolean> answers = new HashMap<>();
+        Set<String> conflicts = new TreeSet<>();
+        for (Node leaf : leaves) {
+            Node node = leaf;
+            for (Node parent : TreeTraversal.ancestors(leaf)) {
+                Boolean answer = answers.putIfAbsent(parent.getFact(), node == parent.getRight());
+                if (answer != null && answer != (node == parent.getRight())) {
+                    conflicts.add(parent.getFact());
+                }
+                node = parent;
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * Copies the tree bottom-up without the duplicate leaves that aren't kept.
+     */
+    private static Node copyWithout(Node root, Map<Node, Node> keptLeaves) {
+        Map<Node, Long> extraHits = new IdentityHashMap<>();
+        keptLeaves.forEach((leaf, kept) -> {
+            if (leaf != kept) {
+                extraHits.merge(kept, leaf.getHits(), Long::sum);
+            }
+        });
+        Map<Node, Node> copies = new IdentityHashMap<>();
+        for (Node node : TreeTraversal.postOrder(root)) {
+            Node copy;
+            if (TreeTraversal.isALeaf(node)) {
+                Node kept = keptLeaves.get(node);
+                if (kept != null && kept != node) {
+                    continue;
+                }
+                copy = new Node(node.getFact(), null);
+                copy.setHits(node.getHits() + extraHits.getOrDefault(node, 0L));
+            } else {
+                Node left = node.getLeft() == null ? null : copies.remove(node.getLeft());
+                Node right = node.getRight() == null ? null : copies.remove(node.getRight());
+                if (left == null || right == null) {
+                    copy = left == null ? right : left;
+                    if (copy == null) {
+                        continue;
+                    }
+                } else {
+                    copy = new Node(node.getFact(), null);
+                    copy.setLeft(left);
+                    copy.setRight(right);
+                    left.setParent(copy);
+                    right.setParent(copy);
+                    copy.setHits(left.getHits() + right.getHits());
+                }
+            }
+            copies.put(node, copy);
+        }
+        Node copy = copies.get(root);
+        copy.setParent(null);
+        return copy;
+    }
+
+    /**
+     * An animal found on several leaves.
+     */
+    public static final class Duplicate {
+        private final String fact;
+        private final int leaves;
+        private final Set<String> conflicts;
+
+        private Duplicate(String fact, int leaves, Set<String> conflicts) {
+            this.fact = fact;
+            this.leaves = leaves;
+            this.conflicts = conflicts;
+        }
+
+        public String getFact() {
+            return fact;
+        }
+
+        public int getLeaves() {
+            return leaves;
+        }
+
+        /**
+         * Statements the animal's leaves answer differently, in alphabetical order.
+         */
+        public Set<String> getConflicts() {
+            return conflicts;
+        }
+    }
+
+    public static final class Result {
+        private final Node root;
+        private final List<Duplicate> duplicates;
+        private final int removedLeaves;
+        private final double averageDepthBefore;
+        private final double averageDepthAfter;
+
+        private Result(Node root, List<Duplicate> duplicates, int removedLeaves,
+                       double averageDepthBefore, double averageDepthAfter) {
+            this.root = root;
+            this.duplicates = duplicates;
+            this.removedLeaves = removedLeaves;
+            this.averageDepthBefore = averageDepthBefore;
+            this.averageDepthAfter = averageDepthAfter;
+        }
+
+        /**
+         * The tree without duplicates, or the original one when there were none.
+         */
+        public Node getRoot() {
+            return root;
+        }
+
+        public List<Duplicate> getDuplicates() {
+            return duplicates;
+        }
+
+        public int getRemovedLeaves() {
+            return removedLeaves;
+        }
+
+        /**
+         * The average number of questions before an animal is guessed, weighted by the animals' games.
+         */
+        public double getAverageDepthBefore() {
+            return averageDepthBefore;
+        }
+
+        public double getAverageDepthAfter() {
+            return averageDepthAfter;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package animals;
+
+/**
+ * Gets told about every change of a {@link Tree}.
+ */
+public interface TreeListener {
+
+    /**
+     * Called before the leaf is split, while the tree is still unchanged.
+     */
+    default void beforeSplit(Node leaf, String fact, String animal, boolean isTrueForAnimal) {
+    }
+
+    /**
+     * Called once the new statement is part of the tree.
+     */
+    default void afterSplit(Node statement) {
+    }
+}
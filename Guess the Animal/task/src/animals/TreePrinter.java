@@ -0,0 +1,101 @@
+package animals;
+
+import java.io.BufferedWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Collects screen output in one reusable buffer and hands it on in chunks,
+ * so printing a large tree costs one write per chunk instead of a locked, flushed write per node.
+ * Not thread-safe; every session has its own.
+ */
+public class TreePrinter {
+    private static final int CHUNK = 1 << 16;
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private final LanguageRules rules;
+    private final StringBuilder buffer = new StringBuilder(CHUNK + 256);
+    private final Appendable out;
+
+    /**
+     * Prints to a stream or writer, which is flushed by {@link #flush()} when it is {@link Flushable}.
+     */
+    public TreePrinter(LanguageRules rules, Appendable out) {
+        this.rules = rules;
+        this.out = out;
+    }
+
+    /**
+     * Writes the printed tree to a UTF-8 file.
+     */
+    public static void export(Node root, LanguageRules rules, Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            TreePrinter printer = new TreePrinter(rules, writer);
+            printer.printTree(root);
+            printer.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Prints every node on its own line, the "yes" subtree before the "no" subtree.
+     * Call {@link #flush()} when done.
+     */
+    public void printTree(Node root) {
+        for (Node node : TreeTraversal.preOrder(root)) {
+            if (node.getParent() == null) {
+                buffer.append("└ ").append(rules.askQuestion(node.getFact()));
+            } else if (TreeTraversal.isALeaf(node)) {
+                buffer.append("└ ").append(rules.getAnimalName(node.getFact()));
+            } else {
+                buffer.append("├ ").append(rules.askQuestion(node.getFact()));
+            }
+            buffer.append(NEW_LINE);
+            if (node.getLeft() != null) {
+                buffer.append('│');
+            }
+            flushIfFull();
+        }
+    }
+
+    public TreePrinter println(String line) {
+        buffer.append(line).append(NEW_LINE);
+        flushIfFull();
+        return this;
+    }
+
+    public TreePrinter println() {
+        return println("");
+    }
+
+    private void flushIfFull() {
+        if (buffer.length() >= CHUNK) {
+            writeBuffer();
+        }
+    }
+
+    private void writeBuffer() {
+        try {
+            out.append(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.setLength(0);
+    }
+
+    public void flush() {
+        writeBuffer();
+        if (out instanceof Flushable) {
+            try {
+                ((Flushable) out).flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
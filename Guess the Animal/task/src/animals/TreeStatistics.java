@@ -0,0 +1,197 @@
+package animals;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Node, animal and depth counters of a tree, updated on every learned animal
+ * so the statistics menu doesn't have to walk the tree.
+ */
+public class TreeStatistics {
+    private int nodes;
+    private int animals;
+    private int statements;
+    private long depthSum;
+    private int minDepth;
+    private int maxDepth;
+    private int[] animalsAtDepth = new int[16];
+
+    TreeStatistics() {
+    }
+
+    public static TreeStatistics of(Node root) {
+        TreeStatistics statistics = new TreeStatistics();
+        TreeTraversal.PreOrderIterator iterator = new TreeTraversal.PreOrderIterator(root);
+        while (iterator.hasNext()) {
+            Node node = iterator.next();
+            statistics.count(TreeTraversal.isALeaf(node), iterator.getDepth());
+        }
+        return statistics;
+    }
+
+    /**
+     * Counts one more node, for a tree that is counted while it is written rather than walked.
+     */
+    void count(boolean animal, int depth) {
+        nodes++;
+        if (animal) {
+            addAnimal(depth);
+        } else {
+            statements++;
+        }
+    }
+
+    synchronized TreeStatistics copy() {
+        TreeStatistics copy = new TreeStatistics();
+        copy.nodes = nodes;
+        copy.animals = animals;
+        copy.statements = statements;
+        copy.depthSum = depthSum;
+        copy.minDepth = minDepth;
+        copy.maxDepth = maxDepth;
+        copy.animalsAtDepth = Arrays.copyOf(animalsAtDepth, maxDepth + 1);
+        return copy;
+    }
+
+    /**
+     * Writes the counters and the animals at every depth, for {@link #read(ByteBuffer)}.
+     */
+    synchronized void write(DataOutput out) throws IOException {
+        out.writeInt(nodes);
+        out.writeInt(animals);
+        out.writeInt(statements);
+        out.writeLong(depthSum);
+        out.writeInt(minDepth);
+        out.writeInt(maxDepth);
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            out.writeInt(depth < animalsAtDepth.length ? animalsAtDepth[depth] : 0);
+        }
+    }
+
+    static TreeStatistics read(ByteBuffer in) {
+        TreeStatistics statistics = new TreeStatistics();
+        statistics.nodes = in.getInt();
+        statistics.animals = in.getInt();
+        statistics.statements = in.getInt();
+        statistics.depthSum = in.getLong();
+        statistics.minDepth = in.getInt();
+        statistics.maxDepth = in.getInt();
+        statistics.animalsAtDepth = new int[Math.max(statistics.maxDepth + 1, 16)];
+        for (int depth = 0; depth <= statistics.maxDepth; depth++) {
+            statistics.animalsAtDepth[depth] = in.getInt();
+        }
+        return statistics;
+    }
+
+    /**
+     * Records that the animal at the given depth became a statement with two animals below it.
+     */
+    synchronized void onSplit(int depth) {
+        removeAnimal(depth);
+        addAnimal(depth + 1);
+        addAnimal(depth + 1);
+        nodes += 2;
+        statements++;
+        if (animalsAtDepth[minDepth] == 0) {
+            minDepth = firstUsedDepth(minDepth);
+        }
+    }
+
+    private void addAnimal(int depth) {
+        if (depth >= animalsAtDepth.length) {
+            animalsAtDepth = Arrays.copyOf(animalsAtDepth, Math.max(depth + 1, animalsAtDepth.length * 2));
+        }
+        animalsAtDepth[depth]++;
+        if (animals == 0 || depth < minDepth) {
+            minDepth = depth;
+        }
+        animals++;
+        depthSum += depth;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void removeAnimal(int depth) {
+        animalsAtDepth[depth]--;
+        animals--;
+        depthSum -= depth;
+    }
+
+    private int firstUsedDepth(int from) {
+        for (int depth = from; depth <= maxDepth; depth++) {
+            if (animalsAtDepth[depth] > 0) {
+                return depth;
+            }
+        }
+        return 0;
+    }
+
+    public synchronized int getNodes() {
+        return nodes;
+    }
+
+    public synchronized int getAnimals() {
+        return animals;
+    }
+
+    public synchronized int getStatements() {
+        return statements;
+    }
+
+    public synchronized int getHeight() {
+        return maxDepth;
+    }
+
+    public synchronized int getMinimumDepth() {
+        return minDepth;
+    }
+
+    public synchronized double getAverageDepth() {
+        return animals == 0 ? 0 : (double) depthSum / animals;
+    }
+
+    /**
+     * Compares these counters with a full recount of the tree and throws if they differ.
+     */
+    public void check(Node root) {
+        TreeStatistics expected = of(root);
+        if (!expected.equals(this)) {
+            throw new IllegalStateException("Tree statistics out of sync: expected "
+                    + expected + " but was " + this);
+        }
+    }
+
+    /**
+     * Equal statistics have the same counters and the same number of animals at every depth.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TreeStatistics)) {
+            return false;
+        }
+        // copies, so the two aren't locked at once
+        TreeStatistics mine = copy();
+        TreeStatistics theirs = ((TreeStatistics) o).copy();
+        return mine.nodes == theirs.nodes && mine.animals == theirs.animals && mine.statements == theirs.statements
+                && mine.depthSum == theirs.depthSum && mine.minDepth == theirs.minDepth
+                && mine.maxDepth == theirs.maxDepth && Arrays.equals(mine.animalsAtDepth, theirs.animalsAtDepth);
+    }
+
+    @Override
+    public int hashCode() {
+        TreeStatistics mine = copy();
+        return 31 * Objects.hash(mine.nodes, mine.animals, mine.statements, mine.depthSum, mine.minDepth, mine.maxDepth)
+                + Arrays.hashCode(mine.animalsAtDepth);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "nodes=" + nodes + ", animals=" + animals + ", statements=" + statements
+                + ", height=" + maxDepth + ", minimumDepth=" + minDepth + ", depthSum=" + depthSum;
+    }
+}
@@ -0,0 +1,222 @@
+package animals;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Tree walks with explicit stacks, so badly unbalanced trees can't overflow the call stack.
+ * Children are visited right ("yes") before left ("no"), like the printed tree.
+ */
+public final class TreeTraversal {
+
+    private TreeTraversal() {
+    }
+
+    public static Iterable<Node> preOrder(Node root) {
+        return () -> new PreOrderIterator(root);
+    }
+
+    /**
+     * Pre-order walk that visits the child with more hits first, so the most played
+     * paths come out as unbroken runs of nodes.
+     */
+    public static Iterable<Node> hotFirst(Node root) {
+        return () -> new Iterator<>() {
+            private final Deque<Node> nodes = new ArrayDeque<>(root == null ? List.of() : List.of(root));
+
+            @Override
+            public boolean hasNext() {
+                return !nodes.isEmpty();
+            }
+
+            @Override
+            public Node next() {
+                if (nodes.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node node = nodes.pop();
+                Node hot = node.getRight();
+                Node cold = node.getLeft();
+                if (isNoFirst(node)) {
+                    hot = node.getLeft();
+                    cold = node.getRight();
+                }
+                if (cold != null) {
+                    nodes.push(cold);
+                }
+                if (hot != null) {
+                    nodes.push(hot);
+                }
+                return node;
+            }
+        };
+    }
+
+    /**
+     * Tells whether {@link #hotFirst} visits the "no" child of the statement first,
+     * because it has more hits than the "yes" child.
+     */
+    static boolean isNoFirst(Node node) {
+        return node.getLeft() != null && node.getRight() != null
+                && node.getLeft().getHits() > node.getRight().getHits();
+    }
+
+    public static Iterable<Node> postOrder(Node root) {
+        return () -> new PostOrderIterator(root);
+    }
+
+    public static Iterable<Node> leaves(Node root) {
+        return () -> new LeafIterator(root);
+    }
+
+    /**
+     * Walks from the parent of the given node up to the root.
+     */
+    public static Iterable<Node> ancestors(Node node) {
+        return () -> new Iterator<>() {
+            private Node next = node == null ? null : node.getParent();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Node next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Node current = next;
+                next = next.getParent();
+                return current;
+            }
+        };
+    }
+
+    static boolean isALeaf(Node node) {
+        return node.getLeft() == null && node.getRight() == null;
+    }
+
+    /**
+     * Pre-order iterator that also tells the depth of the node it returned last.
+     */
+    public static class PreOrderIterator implements Iterator<Node> {
+        private final Deque<Node> nodes = new ArrayDeque<>();
+        private int[] depths = new int[16];
+        private int depth;
+
+        public PreOrderIterator(Node root) {
+            if (root != null) {
+                push(root, 0);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !nodes.isEmpty();
+        }
+
+        @Override
+        public Node next() {
+            if (nodes.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            depth = depths[nodes.size() - 1];
+            Node node = nodes.pop();
+            if (node.getLeft() != null) {
+                push(node.getLeft(), depth + 1);
+            }
+            if (node.getRight() != null) {
+                push(node.getRight(), depth + 1);
+            }
+            return node;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        private void push(Node node, int nodeDepth) {
+            if (nodes.size() == depths.length) {
+                depths = Arrays.copyOf(depths, depths.length * 2);
+            }
+            depths[nodes.size()] = nodeDepth;
+            nodes.push(node);
+        }
+    }
+
+    private static class PostOrderIterator implements Iterator<Node> {
+        private final Deque<Node> nodes = new ArrayDeque<>();
+        private Node lastReturned;
+
+        private PostOrderIterator(Node root) {
+            if (root != null) {
+                nodes.push(root);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !nodes.isEmpty();
+        }
+
+        @Override
+        public Node next() {
+            if (nodes.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            while (true) {
+                Node node = nodes.peek();
+                boolean childrenDone = isALeaf(node) || lastReturned != null
+                        && (lastReturned == node.getLeft()
+                        || lastReturned == node.getRight() && node.getLeft() == null);
+                if (childrenDone) {
+                    lastReturned = nodes.pop();
+                    return lastReturned;
+                }
+                if (node.getLeft() != null) {
+                    nodes.push(node.getLeft());
+                }
+                if (node.getRight() != null) {
+                    nodes.push(node.getRight());
+                }
+            }
+        }
+    }
+
+    private static class LeafIterator implements Iterator<Node> {
+        private final Deque<Node> nodes = new ArrayDeque<>();
+
+        private LeafIterator(Node root) {
+            if (root != null) {
+                nodes.push(root);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !nodes.isEmpty();
+        }
+
+        @Override
+        public Node next() {
+            while (!nodes.isEmpty()) {
+                Node node = nodes.pop();
+                if (isALeaf(node)) {
+                    return node;
+                }
+                if (node.getLeft() != null) {
+                    nodes.push(node.getLeft());
+                }
+                if (node.getRight() != null) {
+                    nodes.push(node.getRight());
+                }
+            }
+            throw new NoSuchElementException();
+        }
+    }
+}
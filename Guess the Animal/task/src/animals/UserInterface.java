@@ -1,65 +1,103 @@
 package animals;
 
 import javax.swing.plaf.basic.BasicInternalFrameTitlePane;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.text.MessageFormat;
 import java.time.LocalTime;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class UserInterface {
+    private static final int PAGE_SIZE = 20;
+    private static final Map<String, String> MENU_OPERATIONS = Map.of("1", "play", "2", "list", "3", "search",
+            "4", "statistics", "5", "print", "6", "find", "7", "hottest");
+    private static final boolean REPORT_STARTUP = Boolean.getBoolean("animals.startupTime");
+    private static final AtomicBoolean FIRST_PROMPT = new AtomicBoolean(true);
+    private static final Map<String, ResourceBundle> MESSAGES = new ConcurrentHashMap<>();
+
     private final Scanner scanner;
-    private final Database database;
+    private final PrintStream out;
+    private final KnowledgeBase knowledgeBase;
     private final Tree tree;
     private ResourceBundle messagesRes;
-    private ResourceBundle patternRes;
+    private LanguageRules rules;
+    private TreePrinter printer;
+    private final Map<String, MessageFormat> formats = new HashMap<>();
+    private long waitingNanos;
 
 
     public UserInterface(Scanner scanner, String type, String language) {
         this.scanner = scanner;
-        this.database = new Database(type);
-        tree = new Tree();
+        this.out = System.out;
+        this.knowledgeBase = new KnowledgeBase(type, new Locale(language));
+        this.tree = knowledgeBase.getTree();
+        setResources();
+    }
+
+    /**
+     * Session on a knowledge base that is already loaded and shared with other sessions,
+     * in the language of the knowledge base.
+     */
+    public UserInterface(Scanner scanner, PrintStream out, KnowledgeBase knowledgeBase) {
+        this.scanner = scanner;
+        this.out = out;
+        this.knowledgeBase = knowledgeBase;
+        this.tree = knowledgeBase.getTree();
         setResources();
     }
 
+    /**
+     * Takes the messages and rules of the knowledge base's language; both are loaded once per language.
+     */
     private void setResources() {
-        if (Locale.getDefault().getLanguage().equals(new Locale("eo").getLanguage())) {
-            messagesRes = ResourceBundle.getBundle("messages_eo");
-            patternRes = ResourceBundle.getBundle("patterns_eo");
-        } else {
-            messagesRes = ResourceBundle.getBundle("messages");
-            patternRes = ResourceBundle.getBundle("patterns");
-        }
+        Locale locale = knowledgeBase.getLocale();
+        messagesRes = MESSAGES.computeIfAbsent(locale.getLanguage(),
+                language -> ResourceBundle.getBundle("messages", new Locale(language), LanguageRules.PROPERTIES_ONLY));
+        rules = knowledgeBase.getRules();
+        printer = new TreePrinter(rules, out);
 
     }
 
     public void start() {
         printHello();
-        tree.setRoot(database.readFromFile());
 
-        if (tree.getRoot() == null) {
-            System.out.println(messagesRes.getString("animal.wantLearn"));
-            System.out.println(messagesRes.getString("animal.askFavorite"));
-            String animal = getAnimal();
-            tree.setRoot(new Node(patternRes.getString("statement.0") + " " + animal, null));
+        if (!knowledgeBase.load()) {
+            out.println(messagesRes.getString("animal.wantLearn"));
+            out.println(messagesRes.getString("animal.askFavorite"));
+            knowledgeBase.create(getAnimal());
         }
 
-        System.out.println(messagesRes.getString("welcome"));
+        out.println(messagesRes.getString("welcome"));
+        runMenu();
+        knowledgeBase.close();
+        out.println(messagesRes.getString("farewell"));
+    }
 
+    public void startSession() {
+        printHello();
+        out.println(messagesRes.getString("welcome"));
+        runMenu();
+        out.println(messagesRes.getString("farewell"));
+    }
+
+    private void runMenu() {
         label:
         while (true) {
             printMenu();
             String input = getInput();
+            long start = System.nanoTime();
+            long waited = waitingNanos;
 
             switch (input) {
                 case "1":
                     do {
-                        System.out.println(messagesRes.getString("game.think"));
-                        System.out.println(messagesRes.getString("game.enter"));
+                        out.println(messagesRes.getString("game.think"));
+                        out.println(messagesRes.getString("game.enter"));
                         getInput();
                         play(tree.getRoot());
-                        System.out.println(messagesRes.getString("game.again"));
+                        out.println(messagesRes.getString("game.again"));
                     } while (getYesOrNo());
                     break;
                 case "2":
@@ -74,206 +112,241 @@ public class UserInterface {
                 case "5":
                     printTree();
                     break;
+                case "6":
+                    findAnimalsByName();
+                    break;
+                case "7":
+                    printHottestAnimals();
+                    break;
                 case "0":
                     break label;
                 default:
-                    System.out.println(MessageFormat.format(
-                            messagesRes.getString("menu.property.error"), 5));
+                    out.println(format("menu.property.error", 7));
+            }
+            if (MENU_OPERATIONS.containsKey(input)) {
+                Metrics.getDefault().histogram("animals_menu_seconds",
+                        "Time spent in a menu entry, without waiting for the player",
+                        "operation", MENU_OPERATIONS.get(input)).observeSince(start + waitingNanos - waited);
             }
 
         }
-        database.saveToFile(tree.getRoot());
-        System.out.println(messagesRes.getString("farewell"));
     }
 
 
     private void treeStats() {
-        List<Integer> depths = tree.getDepths();
-        System.out.println(messagesRes.getString("tree.stats.title"));
-        System.out.println(MessageFormat.format(messagesRes.getString("tree.stats.root"),
+        TreeStatistics statistics = tree.getStatistics();
+        printer.println(messagesRes.getString("tree.stats.title"));
+        printer.println(format("tree.stats.root",
                 tree.getRoot().getFact()));
-        System.out.println(MessageFormat.format(messagesRes.getString("tree.stats.nodes"),
-                tree.getNumberOfNodes()));
-        System.out.println(MessageFormat.format(messagesRes.getString("tree.stats.animals"),
-                tree.getAllLeaves().size()));
-        System.out.println(MessageFormat.format(messagesRes.getString("tree.stats.statements"),
-                tree.getStatements().size()));
-        System.out.println(MessageFormat.format(messagesRes.getString("tree.stats.height"),
-                depths.stream().max(Comparator.naturalOrder()).get()));
-        System.out.println(MessageFormat.format(messagesRes.getString("tree.stats.minimum"),
-                depths.stream().min(Comparator.naturalOrder()).get()));
-        System.out.println(MessageFormat.format(messagesRes.getString("tree.stats.average"),
-                depths.stream().collect(Collectors.averagingInt(Integer::intValue))));
-        System.out.println();
+        printer.println(format("tree.stats.nodes",
+                statistics.getNodes()));
+        printer.println(format("tree.stats.animals",
+                statistics.getAnimals()));
+        printer.println(format("tree.stats.statements",
+                statistics.getStatements()));
+        printer.println(format("tree.stats.height",
+                statistics.getHeight()));
+        printer.println(format("tree.stats.minimum",
+                statistics.getMinimumDepth()));
+        printer.println(format("tree.stats.average",
+                statistics.getAverageDepth()));
+        printer.println().flush();
     }
 
     private void searchForAnimalFacts() {
-        System.out.println(messagesRes.getString("animal.prompt"));
+        out.println(messagesRes.getString("animal.prompt"));
         String animal = getAnimal();
-        List<String> facts = tree.getAllAnimalFacts(animal, patternRes);
+        List<String> facts = tree.getAllAnimalFacts(animal);
 
         if (facts.isEmpty()) {
-            System.out.println(MessageFormat.format(messagesRes.getString("tree.search.noFacts"), animal));
+            out.println(format("tree.search.noFacts", animal));
         } else {
-            System.out.println(MessageFormat.format(messagesRes.getString("tree.search.facts"),
+            out.println(format("tree.search.facts",
                     animal.replaceFirst("an ", "").replaceFirst("a ", "")));
             for (String fact : facts) {
-                System.out.println(fact);
+                out.println(fact);
             }
         }
-        System.out.println();
+        out.println();
     }
 
     private void printAllAnimals() {
-        List<String> animals = tree.getAllLeaves();
-        System.out.println(messagesRes.getString("tree.list.animals"));
-        for (String s : animals) {
-            System.out.println("-" + s.replaceFirst(patternRes.getString("statement.0"), "")
-                    .replaceFirst("(a |an )", ""));
+        printer.println(messagesRes.getString("tree.list.animals"));
+        for (String name : tree.getAnimalNames()) {
+            printer.println("- " + name);
         }
-        System.out.println();
+        printer.println().flush();
+    }
+
+    private void findAnimalsByName() {
+        out.println(messagesRes.getString("tree.find.prompt"));
+        String prefix = getInput().trim();
+        List<String> page = tree.getAnimalNames(prefix, null, PAGE_SIZE + 1);
+        if (page.isEmpty()) {
+            out.println(format("tree.find.none", prefix));
+            out.println();
+            return;
+        }
+        out.println(format("tree.find.animals", prefix));
+        while (true) {
+            for (String name : page.subList(0, Math.min(page.size(), PAGE_SIZE))) {
+                out.println("- " + name);
+            }
+            if (page.size() <= PAGE_SIZE) {
+                break;
+            }
+            out.println(messagesRes.getString("tree.find.more"));
+            if (!getYesOrNo()) {
+                break;
+            }
+            page = tree.getAnimalNames(prefix, page.get(PAGE_SIZE - 1), PAGE_SIZE + 1);
+        }
+        out.println();
+    }
+
+    private void printHottestAnimals() {
+        List<Node> hottest = tree.getHottestAnimals(PAGE_SIZE);
+        if (hottest.isEmpty()) {
+            out.println(messagesRes.getString("tree.hottest.none"));
+            out.println();
+            return;
+        }
+        long games = tree.getRoot().getHits();
+        out.println(messagesRes.getString("tree.hottest.animals"));
+        for (Node leaf : hottest) {
+            out.println(format("tree.hottest.animal",
+                    rules.getBareName(leaf.getFact()), leaf.getHits(), (double) leaf.getHits() / games));
+        }
+        Node end = tree.getHottestPathEnd();
+        out.println(format("tree.hottest.path",
+                rules.getBareName(end.getFact())));
+        for (String fact : tree.getFacts(end)) {
+            out.println(fact);
+        }
+        out.println();
     }
 
     private void printMenu() {
-        System.out.println(messagesRes.getString("menu.property.title") + "\n\n" +
+        out.println(messagesRes.getString("menu.property.title") + "\n\n" +
                 "1. " + messagesRes.getString("menu.entry.play") + "\n" +
                 "2. " + messagesRes.getString("menu.entry.list") + "\n" +
                 "3. " + messagesRes.getString("menu.entry.search") + "\n" +
                 "4. " + messagesRes.getString("menu.entry.statistics") + "\n" +
                 "5. " + messagesRes.getString("menu.entry.print") + "\n" +
+                "6. " + messagesRes.getString("menu.entry.find") + "\n" +
+                "7. " + messagesRes.getString("menu.entry.hottest") + "\n" +
                 "0. " + messagesRes.getString("menu.property.exit") + "\n");
     }
 
     private void play(Node node) {
-
-        if (node == null) {
-            return;
-        }
-        if (node.getLeft() == null && node.getRight() == null) { //no more children, last question
-            System.out.println(askQuestion(node.getFact()));
-            if (getYesOrNo()) {  //yes
-                System.out.println(messagesRes.getString("game.win"));
-            } else {
-                giveUpAndGetFact(node);
-            }
-        } else {  //more questions
-            System.out.println(askQuestion(node.getFact()));
-            if (getYesOrNo()) {  //yes
-                play(node.getRight());
-            } else {
-                play(node.getLeft());
+        while (node != null) {
+            out.println(tree.getQuestion(node));
+            if (tree.isALeaf(node)) { //no more children, last question
+                if (getYesOrNo()) {  //yes
+                    knowledgeBase.countGame(node, true);
+                    out.println(messagesRes.getString("game.win"));
+                } else {
+                    giveUpAndGetFact(node);
+                }
+                return;
             }
+            node = getYesOrNo() ? node.getRight() : node.getLeft();  //more questions
         }
     }
 
     private void giveUpAndGetFact(Node node) {
-        System.out.println(messagesRes.getString("game.giveUp"));
-        String animal1 = node.getFact().replaceFirst(patternRes.getString("statement.0"), "").trim();
+        out.println(messagesRes.getString("game.giveUp"));
+        String animal1 = rules.getAnimalName(node.getFact());
         String animal2 = getAnimal();
-        System.out.println(MessageFormat.format(messagesRes.getString("statement.prompt"), animal1, animal2));
+        Node known = tree.findAnimal(animal2);
+        if (known != null) {
+            printKnownAnimal(node, known, animal2);
+            knowledgeBase.countGame(known, false);
+            return;
+        }
+        out.println(format("statement.prompt", animal1, animal2));
+        Map<String, Boolean> answers = tree.getAnswers(node);
         String fact = getFact();
-        System.out.println(MessageFormat.format(messagesRes.getString("game.isCorrect"), animal2));
+        while (answers.containsKey(fact)) {
+            out.println(messagesRes.getString("statement.asked"));
+            fact = getFact();
+        }
+        out.println(format("game.isCorrect", animal2));
 
-        node.setFact(fact);
+        boolean isTrueForAnimal2 = getYesOrNo();
+        Node statement = tree.splitLeaf(node, fact, animal2, isTrueForAnimal2);
+        knowledgeBase.countGame(isTrueForAnimal2 ? statement.getRight() : statement.getLeft(), false);
 
-        if (getYesOrNo()) {
-            node.setRight(new Node(patternRes.getString("statement.0") + " " + animal2, node));
-            node.setLeft(new Node(patternRes.getString("statement.0") + " " + animal1, node));
-            animal1 = replaceArticleWithDeterminer(
-                    animal1.replaceAll(patternRes.getString("statement.0"), "").trim());
-            animal2 = replaceArticleWithDeterminer(animal2);
-            printNewLearnedFacts(node, animal2, animal1);
+        animal1 = rules.replaceArticleWithDeterminer(animal1);
+        animal2 = rules.replaceArticleWithDeterminer(animal2);
+        if (isTrueForAnimal2) {
+            printNewLearnedFacts(statement, animal2, animal1);
         } else {
-            node.setLeft(new Node(patternRes.getString("statement.0") + " " + animal2, node));
-            node.setRight(new Node(patternRes.getString("statement.0") + " " + animal1, node));
-            animal1 = replaceArticleWithDeterminer(
-                    animal1.replaceAll(patternRes.getString("statement.0"), "").trim());
-            animal2 = replaceArticleWithDeterminer(animal2);
-            printNewLearnedFacts(node, animal1, animal2);
+            printNewLearnedFacts(statement, animal1, animal2);
         }
     }
 
-    private String replaceArticleWithDeterminer(String animal) {
-        Pattern pattern = Pattern.compile(patternRes.getString("definite.1.pattern"));
-        Matcher matcher = pattern.matcher(animal);
-        return matcher.replaceAll(patternRes.getString("definite.1.replace"));
-    }
-
-    private void printNewLearnedFacts(Node node, String animal1, String animal2) { //anim1 true anim2 false
-        System.out.println(messagesRes.getString("game.distinguish"));
-
-        Pattern pattern = Pattern.compile(patternRes.getString("animalFact.1.pattern"));
-        Matcher matcher = pattern.matcher(node.getFact());
-        if (matcher.find()) {
-            System.out.printf(matcher.replaceAll(patternRes.getString("animalFact.1.replace")) + "\n",
-                    animal1);
-            matcher = pattern.matcher(makeNegative(node.getFact()));
-            System.out.printf(matcher.replaceAll(patternRes.getString("animalFact.1.replace")) + "\n",
-                    animal2);
+    /**
+     * Tells the player that the animal is already on another leaf, with the stored facts
+     * that don't match the answers of this game.
+     */
+    private void printKnownAnimal(Node reached, Node known, String animal) {
+        Map<String, Boolean> answers = tree.getAnswers(reached);
+        List<String> conflicts = new ArrayList<>();
+        tree.getAnswers(known).forEach((statement, answer) -> {
+            if (answers.containsKey(statement) && !answer.equals(answers.get(statement))) {
+                conflicts.add(answer ? statement : rules.makeNegative(statement));
+            }
+        });
+        if (conflicts.isEmpty()) {
+            out.println(format("game.known", animal));
+            return;
+        }
+        out.println(format("game.known.conflicts", animal));
+        Collections.sort(conflicts);
+        for (String conflict : conflicts) {
+            out.printf(messagesRes.getString("tree.search.printf"), conflict);
         }
     }
 
-    private String makeNegative(String statement) {
-        Pattern pattern = Pattern.compile(patternRes.getString("negative.1.pattern"));
-        Matcher matcher = pattern.matcher(statement);
-        if (matcher.find()) {
-            return matcher.replaceAll(patternRes.getString("negative.1.replace"));
-        } else {
-            pattern = Pattern.compile(patternRes.getString("negative.2.pattern"));
-            matcher = pattern.matcher(statement);
-            if (matcher.find()) {
-                return matcher.replaceAll(patternRes.getString("negative.2.replace"));
-            } else {
-                pattern = Pattern.compile(patternRes.getString("negative.3.pattern"));
-                matcher = pattern.matcher(statement);
-                if (matcher.find()) {
-                    return matcher.replaceAll(patternRes.getString("negative.3.replace"));
-                }
-            }
+    private void printNewLearnedFacts(Node node, String animal1, String animal2) { //anim1 true anim2 false
+        out.println(messagesRes.getString("game.distinguish"));
+
+        String positive = rules.toAnimalFact(node.getFact());
+        if (positive != null) {
+            out.printf(positive + "\n", animal1);
+            String negative = rules.makeNegative(node.getFact());
+            String negativeFact = rules.toAnimalFact(negative);
+            out.printf((negativeFact == null ? negative : negativeFact) + "\n", animal2);
         }
-        return "";
     }
 
     private String getFact() {
         String factString;
         while (true) {
-            factString = getInput();
-            Pattern pattern = Pattern.compile(patternRes.getString("statement.1.pattern"));
-            Matcher matcher = pattern.matcher(factString);
-            if (matcher.find()) {
-                return matcher.group();
+            factString = rules.findStatement(getInput());
+            if (factString != null) {
+                return factString;
             } else {
-                System.out.println(messagesRes.getString("statement.error"));
+                out.println(messagesRes.getString("statement.error"));
             }
         }
     }
 
     private boolean getYesOrNo() {
-        String replay;
-        Pattern yesPattern = Pattern.compile(patternRes.getString("positiveAnswer.isCorrect"));
-        Pattern noPattern = Pattern.compile(patternRes.getString("negativeAnswer.isCorrect"));
-        Matcher matcher;
         while (true) {
-            replay = getInput().replaceFirst("\\W$", "").trim();
-            matcher = yesPattern.matcher(replay);
-            if (matcher.find()) {
-                return true;
-            } else {
-                matcher = noPattern.matcher(replay);
-                if (matcher.find()) {
-                    return false;
-                } else {
-                    System.out.println(messagesRes.getString("ask.again"));
-                }
+            Boolean answer = rules.evaluateAnswer(getInput());
+            if (answer != null) {
+                return answer;
             }
+            out.println(messagesRes.getString("ask.again"));
         }
     }
 
     private String getAnimal() {
         String animal = getInput();
-        Pattern pattern = Pattern.compile(patternRes.getString("animal.1.pattern"));
-        Matcher matcher = pattern.matcher(animal);
-        if (matcher.find()) {
+        String match = rules.findAnimal(animal);
+        if (match != null) {
             if (messagesRes.getString("lng").equals("en")) {
                 String article;
                 String animal1 = animal.replaceFirst("a ", "")
@@ -294,16 +367,39 @@ public class UserInterface {
                 return article + animal1;
 
             } else {
-                return matcher.group();
+                return match;
             }
         } else {
-            System.out.println(messagesRes.getString("animal.error"));
+            out.println(messagesRes.getString("animal.error"));
             return getAnimal();
         }
     }
 
+    /**
+     * Formats a message with the numbers and dates of the session's language.
+     */
+    private String format(String key, Object... arguments) {
+        return formats.computeIfAbsent(key, k -> new MessageFormat(messagesRes.getString(k), knowledgeBase.getLocale()))
+                .format(arguments);
+    }
+
     private String getInput() {
-        return scanner.nextLine().toLowerCase(Locale.ROOT);
+        if (REPORT_STARTUP && FIRST_PROMPT.compareAndSet(true, false)) {
+            reportStartup();
+        }
+        long start = System.nanoTime();
+        String line = scanner.nextLine();
+        waitingNanos += System.nanoTime() - start;
+        return line.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Prints the time from the start of the JVM to the first prompt to stderr, read by the startupTime task.
+     */
+    private static void reportStartup() {
+        long now = System.currentTimeMillis();
+        long startupMillis = now - ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.err.println("time to first prompt: " + startupMillis + " ms");
     }
 
     private void printHello() {
@@ -311,56 +407,17 @@ public class UserInterface {
 
         if (timeNow.isBefore(LocalTime.of(5, 0, 1))
                 || timeNow.isAfter(LocalTime.of(18, 0))) {
-            System.out.println(messagesRes.getString("greeting.evening"));
+            out.println(messagesRes.getString("greeting.evening"));
         } else if (timeNow.isBefore(LocalTime.of(12, 0, 1))) {
-            System.out.println(messagesRes.getString("greeting.morning"));
+            out.println(messagesRes.getString("greeting.morning"));
         } else if (timeNow.isBefore(LocalTime.of(18, 0, 1))) {
-            System.out.println(messagesRes.getString("greeting.afternoon"));
+            out.println(messagesRes.getString("greeting.afternoon"));
         }
-        System.out.println();
+        out.println();
     }
 
     public void printTree() {
-        printNode(tree.getRoot(), new ArrayDeque<>());
-    }
-
-
-    private void printNode(Node node, Deque<Node> leftNodes) {
-        if (node == null) {
-            return;
-        } else if (node.getParent() == null) {
-            System.out.println("└ " + askQuestion(node.getFact())/*.getQuestion()*/);
-        } else if (tree.isALeaf(node)) {
-            System.out.println("└ " + getAnimalName(node.getFact())/*.getFact()*/);
-        } else if (!tree.isALeaf(node)) {
-            System.out.println("├ " + askQuestion(node.getFact())/*.getQuestion()*/);
-        }
-        if (node.getLeft() != null) {
-            leftNodes.addLast(node.getLeft());
-            System.out.print("│");
-        }
-        printNode(node.getRight(), leftNodes);
-        if (!leftNodes.isEmpty()) {
-            printNode(leftNodes.pollLast(), leftNodes);
-        }
-    }
-
-    private String askQuestion(String statement) {
-        Pattern pattern = Pattern.compile(patternRes.getString("question.1.pattern"));
-        Matcher matcher = pattern.matcher(statement);
-        if (matcher.find()) {
-            return matcher.replaceAll(patternRes.getString("question.1.replace"));
-        } else {
-            pattern = Pattern.compile(patternRes.getString("question.2.pattern"));
-            matcher = pattern.matcher(statement);
-            if (matcher.find()) {
-                return matcher.replaceAll(patternRes.getString("question.2.replace"));
-            }
-        }
-        return "";
-    }
-
-    private String getAnimalName(String statement) {
-        return statement.replaceFirst(patternRes.getString("statement.0"), "").trim();
+        printer.printTree(tree.getRoot());
+        printer.flush();
     }
 }
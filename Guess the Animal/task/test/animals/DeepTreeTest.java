@@ -0,0 +1,115 @@
+package animals;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Scanner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every menu entry and every file format on a degenerate tree a million statements deep (yaml a few
+ * thousand), where any recursive walk overflows the stack. Statement i is "it has trait i", its "yes" leaf is animal i
+ * and its "no" child the next statement; the last "no" is animal 1000000.
+ * The files are written to the working directory, like the game does.
+ */
+public class DeepTreeTest {
+    private static final int DEPTH = 1_000_000;
+    private static final int NODES = 2 * DEPTH + 1;
+    // yaml indents every level, so its file grows with the square of the depth; the mappers overflowed at 2000
+    private static final int YAML_DEPTH = 3_000;
+    private static final Locale ENGLISH = Locale.ENGLISH;
+
+    @After
+    public void deleteFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("."), "animals.*")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void savesAndLoadsEveryFormat() {
+        Node root = buildDeepTree(DEPTH);
+        for (String type : new String[]{"json", "xml", "bin", "idx"}) {
+            saveAndLoad(type, root, DEPTH);
+        }
+        saveAndLoad("yaml", buildDeepTree(YAML_DEPTH), YAML_DEPTH);
+    }
+
+    private static void saveAndLoad(String type, Node root, int depth) {
+        Database database = new Database(type, ENGLISH);
+        assertTrue(type, database.saveToFile(root));
+        // the text formats are read from their binary snapshot unless it is gone
+        database.getSnapshotFile().toFile().delete();
+        Node loaded = database.readFromFile();
+        assertNotNull(type, loaded);
+        assertEquals(type, TreeStatistics.of(root).toString(), TreeStatistics.of(loaded).toString());
+        assertEquals(type, "it is an animal " + depth, deepestLeaf(loaded).getFact());
+    }
+
+    @Test
+    public void runsEveryMenuEntry() {
+        assertTrue(new Database("json", ENGLISH).saveToFile(buildDeepTree(DEPTH)));
+        KnowledgeBase knowledgeBase = new KnowledgeBase("json", ENGLISH);
+        assertTrue(knowledgeBase.load());
+
+        StringBuilder input = new StringBuilder();
+        // play down to the deepest animal and teach a zebra there
+        input.append("1\n\n");
+        for (int i = 0; i < DEPTH; i++) {
+            input.append("no\n");
+        }
+        input.append("no\na zebra\nit has stripes\nyes\nno\n");
+        // list, search, statistics, print, find, hottest, exit
+        input.append("2\n3\nanimal 999999\n4\n5\n6\nanimal 99999\n7\n0\n");
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream(), false, StandardCharsets.UTF_8);
+        new UserInterface(new Scanner(input.toString()), out, knowledgeBase).startSession();
+
+        Tree tree = knowledgeBase.getTree();
+        assertEquals(NODES + 2, tree.getStatistics().getNodes());
+        // the zebra's statement made the deepest animal one deeper
+        assertEquals(DEPTH + 1, tree.getStatistics().getHeight());
+        assertNotNull(tree.findAnimal("a zebra"));
+        assertTrue(knowledgeBase.runBatch(() -> { }));
+        knowledgeBase.close();
+
+        KnowledgeBase reloaded = new KnowledgeBase("json", ENGLISH);
+        assertTrue(reloaded.load());
+        assertEquals(tree.getStatistics(), reloaded.getTree().getStatistics());
+        reloaded.close();
+    }
+
+    private static Node buildDeepTree(int depth) {
+        Node root = new Node("it has trait 0", null);
+        Node statement = root;
+        for (int i = 0; i < depth; i++) {
+            Node yes = new Node("it is an animal " + i, statement);
+            Node no = new Node(i + 1 < depth ? "it has trait " + (i + 1) : "it is an animal " + depth, statement);
+            statement.setRight(yes);
+            statement.setLeft(no);
+            statement = no;
+        }
+        return root;
+    }
+
+    private static Node deepestLeaf(Node root) {
+        Node node = root;
+        while (node.getLeft() != null) {
+            node = node.getLeft();
+        }
+        return node;
+    }
+}
@@ -0,0 +1,150 @@
+package animals;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Splits and games written to the journal come back when the knowledge base is loaded again without a snapshot,
+ * as after a crash, and a record torn by the crash is dropped. Closing a knowledge base doesn't save it,
+ * so a close stands in for the killed process.
+ * The files are written to the working directory, like the game does.
+ */
+public class JournalTest {
+    private static final Locale ENGLISH = Locale.ENGLISH;
+    private static final LanguageRules RULES = LanguageRules.forLocale(ENGLISH);
+
+    @After
+    public void deleteFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("."), "animals.*")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void replaysTheJournalAndDropsATornRecord() throws IOException {
+        KnowledgeBase knowledgeBase = new KnowledgeBase("json", ENGLISH);
+        knowledgeBase.create("a cat");
+        Path journal = Paths.get(knowledgeBase.getDatabase().getFilename() + ".journal");
+        Tree tree = knowledgeBase.getTree();
+        tree.splitLeaf(tree.findAnimal("a cat"), "it can bark", "a dog", true);
+        tree.splitLeaf(tree.findAnimal("a cat"), "it lives in the water", "a fish", true);
+        knowledgeBase.countGame(tree.findAnimal("a dog"), true);
+        knowledgeBase.countGame(tree.findAnimal("a dog"), true);
+        knowledgeBase.countGame(tree.findAnimal("a fish"), false);
+        String journaled = describe(tree.getRoot());
+        TreeStatistics statistics = tree.getStatistics().copy();
+
+        long complete = Files.size(journal);
+        tree.splitLeaf(tree.findAnimal("a fish"), "it has a shell", "a turtle", true);
+        long torn = complete + (Files.size(journal) - complete) / 2;
+        knowledgeBase.close();
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(torn);
+        }
+
+        KnowledgeBase reloaded = new KnowledgeBase("json", ENGLISH);
+        assertTrue(reloaded.load());
+        assertEquals(journaled, describe(reloaded.getTree().getRoot()));
+        assertEquals(statistics, reloaded.getTree().getStatistics());
+        assertEquals("the torn record is cut off", complete, Files.size(journal));
+
+        // records appended after the cut are replayed like the others
+        Tree reloadedTree = reloaded.getTree();
+        reloadedTree.splitLeaf(reloadedTree.findAnimal("a fish"), "it has a shell", "a turtle", true);
+        reloaded.countGame(reloadedTree.findAnimal("a turtle"), false);
+        String appended = describe(reloadedTree.getRoot());
+        reloaded.close();
+
+        KnowledgeBase again = new KnowledgeBase("json", ENGLISH);
+        assertTrue(again.load());
+        assertEquals(appended, describe(again.getTree().getRoot()));
+        assertNotNull(again.getTree().findAnimal("a turtle"));
+        again.close();
+    }
+
+    @Test
+    public void replayingRecordsAlreadyInTheTreeChangesNothing() throws IOException {
+        Path file = Paths.get("animals.test.journal");
+        Tree tree = newTree();
+        Journal journal = new Journal(file);
+        journal.replay(tree);
+        tree.addListener(journal);
+        tree.splitLeaf(tree.findAnimal("a cat"), "it can bark", "a dog", true);
+        Node dog = tree.findAnimal("a dog");
+        journal.recordGame(dog, tree.countGame(dog));
+        journal.close();
+        String journaled = describe(tree.getRoot());
+
+        Tree replayed = newTree();
+        Journal replay = new Journal(file);
+        assertEquals(2, replay.replay(replayed));
+        replay.close();
+        assertEquals(journaled, describe(replayed.getRoot()));
+
+        Journal twice = new Journal(file);
+        assertEquals(0, twice.replay(replayed));
+        twice.close();
+        assertEquals(journaled, describe(replayed.getRoot()));
+    }
+
+    @Test
+    public void dropHeadKeepsTheRecordsAfterIt() throws IOException {
+        Path file = Paths.get("animals.test.journal");
+        Tree tree = newTree();
+        Journal journal = new Journal(file);
+        journal.replay(tree);
+        tree.addListener(journal);
+        tree.splitLeaf(tree.findAnimal("a cat"), "it can bark", "a dog", true);
+        // the snapshot holds the tree up to here
+        Node saved = Tree.copy(tree.getRoot());
+        long head = journal.getSize();
+        tree.splitLeaf(tree.findAnimal("a cat"), "it lives in the water", "a fish", true);
+        Node fish = tree.findAnimal("a fish");
+        journal.recordGame(fish, tree.countGame(fish));
+
+        journal.dropHead(head);
+        assertEquals(journal.getSize(), Files.size(file));
+        // the journal keeps appending to the new file
+        tree.splitLeaf(tree.findAnimal("a dog"), "it is a pet", "a wolf", false);
+        journal.close();
+        String journaled = describe(tree.getRoot());
+
+        Tree replayed = new Tree(RULES);
+        replayed.setRoot(saved);
+        Journal replay = new Journal(file);
+        assertEquals(3, replay.replay(replayed));
+        replay.close();
+        assertEquals(journaled, describe(replayed.getRoot()));
+    }
+
+    private static Tree newTree() {
+        Tree tree = new Tree(RULES);
+        tree.setRoot(new Node(RULES.toLeafFact("a cat"), null));
+        return tree;
+    }
+
+    /**
+     * Every node's fact and hits in pre-order, the "yes" child first.
+     */
+    private static String describe(Node node) {
+        if (node == null) {
+            return "";
+        }
+        return "(" + node.getFact() + " " + node.getHits() + describe(node.getRight()) + describe(node.getLeft()) + ")";
+    }
+}
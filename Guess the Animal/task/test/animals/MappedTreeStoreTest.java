@@ -0,0 +1,204 @@
+package animals;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Appending to an idx file: the records of unchanged nodes are reused, every append switches the header slot,
+ * a damaged newer slot leaves the previous version, and a file that grew too much is rewritten when it is loaded.
+ * The files are written to the working directory, like the game does.
+ */
+public class MappedTreeStoreTest {
+    private static final Locale ENGLISH = Locale.ENGLISH;
+    private static final LanguageRules RULES = LanguageRules.forLocale(ENGLISH);
+    private static final Path FILE = Paths.get("animals.test.idx");
+    // the two header slots follow the magic and the version; a slot starts with its sequence number
+    private static final int SLOT = 8;
+    private static final int SLOT_SIZE = 32;
+
+    @After
+    public void deleteFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("."), "animals.*")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void appendWritesTheChangedPathsOnly() throws IOException {
+        Tree tree = buildTree(new Random(1), 500);
+        MappedTreeStore.save(tree.getRoot(), FILE);
+        MappedTreeStore store = MappedTreeStore.open(FILE);
+        long full = Files.size(FILE);
+
+        assertEquals("nothing changed", 0, store.append(tree.getRoot(), tree.getStatistics().copy()));
+
+        List<Node> leaves = leaves(tree.getRoot());
+        Node played = leaves.get(7);
+        Node other = leaves.get(300);
+        int otherStored = other.getStored();
+        tree.countGames(played, 3);
+        assertEquals(Node.NOT_STORED, played.getStored());
+        long appended = store.append(tree.getRoot(), tree.getStatistics().copy());
+        assertTrue("appended " + appended + " of " + full, appended > 0 && appended < full / 20);
+        assertNotEquals(Node.NOT_STORED, played.getStored());
+        assertEquals("an unchanged node keeps its record", otherStored, other.getStored());
+        assertEquals(full + appended, Files.size(FILE));
+
+        // a tree read from the file appends the same way
+        MappedTreeStore reopened = MappedTreeStore.open(FILE);
+        Tree mapped = new Tree(RULES);
+        mapped.setRoot(reopened.getRoot(), reopened.getStatistics());
+        assertEquals(describe(tree.getRoot()), describe(mapped.getRoot()));
+        mapped.countGames(leaves(mapped.getRoot()).get(400), 1);
+        mapped.splitLeaf(leaves(mapped.getRoot()).get(20), "It can fly.", "a bird", true);
+        appended = reopened.append(mapped.getRoot(), mapped.getStatistics().copy());
+        assertTrue("appended " + appended + " of " + full, appended > 0 && appended < full / 20);
+
+        MappedTreeStore loaded = MappedTreeStore.open(FILE);
+        assertEquals(describe(mapped.getRoot()), describe(loaded.getRoot()));
+        assertEquals(TreeStatistics.of(mapped.getRoot()), loaded.getStatistics());
+    }
+
+    @Test
+    public void everyAppendSwitchesTheHeaderSlot() throws IOException {
+        Tree tree = buildTree(new Random(2), 100);
+        MappedTreeStore.save(tree.getRoot(), FILE);
+        MappedTreeStore store = MappedTreeStore.open(FILE);
+        assertEquals(1, readSequence(1));
+        for (long sequence = 2; sequence <= 5; sequence++) {
+            tree.countGames(leaves(tree.getRoot()).get((int) sequence), 1);
+            store.append(tree.getRoot(), tree.getStatistics().copy());
+            int newer = (int) (sequence % 2);
+            assertEquals(sequence, readSequence(newer));
+            assertEquals("the previous version stays in the other slot", sequence - 1, readSequence(1 - newer));
+        }
+    }
+
+    @Test
+    public void damagedNewerSlotLeavesThePreviousVersion() throws IOException {
+        Tree tree = buildTree(new Random(3), 200);
+        MappedTreeStore.save(tree.getRoot(), FILE);
+        MappedTreeStore store = MappedTreeStore.open(FILE);
+        tree.splitLeaf(leaves(tree.getRoot()).get(10), "It can fly.", "a bird", true);
+        store.append(tree.getRoot(), tree.getStatistics().copy());
+        String previous = describe(tree.getRoot());
+        TreeStatistics previousStatistics = tree.getStatistics().copy();
+        tree.countGames(leaves(tree.getRoot()).get(50), 2);
+        tree.splitLeaf(leaves(tree.getRoot()).get(60), "It has a shell.", "a turtle", true);
+        store.append(tree.getRoot(), tree.getStatistics().copy());
+
+        // sequence 3 is in slot 1; tear its CRC as a crash while the slot was written would
+        damageSlot(1);
+        MappedTreeStore loaded = MappedTreeStore.open(FILE);
+        assertEquals(previous, describe(loaded.getRoot()));
+        assertEquals(previousStatistics, loaded.getStatistics());
+
+        damageSlot(0);
+        try {
+            MappedTreeStore.open(FILE);
+            fail("a file without a valid slot was opened");
+        } catch (IOException expected) {
+            // neither version can be trusted
+        }
+    }
+
+    @Test
+    public void loadRewritesAFileThatGrewTooMuch() throws IOException {
+        Random random = new Random(4);
+        Tree tree = buildTree(random, 300);
+        Database database = new Database("idx", ENGLISH);
+        assertTrue(database.saveToFile(tree.getRoot()));
+        Path file = Paths.get(database.getFilename());
+        long written = Files.size(file);
+        // the appends have to outgrow both the written file and a megabyte
+        while (Files.size(file) - written <= Math.max(written, 1 << 20)) {
+            List<Node> leaves = leaves(tree.getRoot());
+            for (int i = 0; i < 30; i++) {
+                tree.countGames(leaves.get(random.nextInt(leaves.size())), 1);
+            }
+            assertTrue(database.saveToFile(tree.getRoot(), tree.getStatistics().copy()));
+        }
+        long grown = Files.size(file);
+
+        Database reloaded = new Database("idx", ENGLISH);
+        Node root = reloaded.readFromFile();
+        assertTrue("compacted to " + Files.size(file) + " from " + grown, Files.size(file) < grown / 10);
+        assertEquals(describe(tree.getRoot()), describe(root));
+        assertEquals(tree.getStatistics(), reloaded.getStoredStatistics());
+
+        // and the rewritten file is appended to again
+        Tree compacted = new Tree(RULES);
+        compacted.setRoot(root, reloaded.getStoredStatistics());
+        compacted.countGames(leaves(root).get(5), 1);
+        long before = Files.size(file);
+        assertTrue(reloaded.saveToFile(compacted.getRoot(), compacted.getStatistics().copy()));
+        assertTrue(Files.size(file) > before);
+        assertEquals(describe(compacted.getRoot()), describe(new Database("idx", ENGLISH).readFromFile()));
+    }
+
+    /**
+     * A tree of random splits, with a few facts that aren't Latin-1.
+     */
+    private static Tree buildTree(Random random, int animals) {
+        Tree tree = new Tree(RULES);
+        tree.setRoot(new Node(RULES.toLeafFact("a cat"), null));
+        for (int i = 1; i < animals; i++) {
+            List<Node> leaves = leaves(tree.getRoot());
+            String fact = i % 10 == 0 ? "Ĝi povas naĝi " + i + "." : "It can do trick " + i + ".";
+            tree.splitLeaf(leaves.get(random.nextInt(leaves.size())), fact, "an animal " + i, random.nextBoolean());
+        }
+        return tree;
+    }
+
+    private static List<Node> leaves(Node root) {
+        List<Node> leaves = new ArrayList<>();
+        TreeTraversal.leaves(root).forEach(leaves::add);
+        return leaves;
+    }
+
+    /**
+     * Every node's path, fact and hits in pre-order.
+     */
+    private static String describe(Node root) {
+        StringBuilder description = new StringBuilder();
+        for (Node node : TreeTraversal.preOrder(root)) {
+            description.append(Tree.getPath(node)).append(' ').append(node.getFact())
+                    .append(' ').append(node.getHits()).append('\n');
+        }
+        return description.toString();
+    }
+
+    private static long readSequence(int slot) throws IOException {
+        try (FileChannel channel = FileChannel.open(FILE, StandardOpenOption.READ)) {
+            ByteBuffer sequence = ByteBuffer.allocate(Long.BYTES);
+            channel.read(sequence, SLOT + slot * SLOT_SIZE);
+            return sequence.getLong(0);
+        }
+    }
+
+    private static void damageSlot(int slot) throws IOException {
+        try (FileChannel channel = FileChannel.open(FILE, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), SLOT + (slot + 1) * SLOT_SIZE - Integer.BYTES);
+        }
+    }
+}